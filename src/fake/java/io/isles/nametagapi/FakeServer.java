@@ -0,0 +1,454 @@
+package io.isles.nametagapi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import io.netty.channel.Channel;
+import net.minecraft.server.v1_8_R3.EntityPlayer;
+import net.minecraft.server.v1_8_R3.Packet;
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.craftbukkit.v1_8_R3.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * A headless stand-in for the server, so NametagManager and PacketHandler can
+ * be benchmarked and tested without running Minecraft. The server, its plugin
+ * manager, its scheduler and its players are proxies that only answer what
+ * NametagAPI asks of them, and the stand-in NMS classes in this source set
+ * take the place of the real ones.
+ *
+ * <br>
+ * <br>
+ *
+ * Unless {@link #getPlugin()} is handed to NametagManager, no plugin instance
+ * exists, so queued changes are flushed as soon as they are made and unused
+ * teams are removed straight away. Tasks scheduled for the plugin only run
+ * when {@link #tick()} is called.
+ */
+final class FakeServer {
+
+    private static final List<Player> online = new ArrayList<>();
+    private static final Map<UUID, Location> locations = new HashMap<>();
+    private static final Map<String, World> worlds = new HashMap<>();
+    /** Scheduled tasks by their id, in the order they were scheduled. */
+    private static final Map<Integer, Task> tasks = new LinkedHashMap<>();
+    /** Listeners registered through {@link #listen(HandlerList, EventExecutor)}. */
+    private static final Map<Listener, HandlerList> listeners = new HashMap<>();
+    private static Server server;
+    private static Plugin plugin;
+    private static long currentTick;
+    private static int lastTask;
+    private static boolean recording;
+    private static boolean installed;
+
+    /** Prevent class instantiation. */
+    private FakeServer() {}
+
+    /**
+     * Installs the fake server, if it is not installed yet.
+     */
+    static synchronized void install() {
+        if (installed) {
+            return;
+        }
+
+        try {
+            Class<?> marker = Class.forName("org.bukkit.craftbukkit.v1_8_R3.CraftServer");
+            final PluginManager pluginManager = (PluginManager) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { PluginManager.class },
+                            new InvocationHandler() {
+
+                                @Override
+                                public Object invoke(Object proxy, Method method, Object[] args) {
+                                    if (method.getName().equals("callEvent")) {
+                                        callEvent((Event) args[0]);
+                                        return null;
+                                    }
+
+                                    return defaultValue(proxy, method, args);
+                                }
+
+                            });
+            final BukkitScheduler scheduler = (BukkitScheduler) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { BukkitScheduler.class },
+                            new InvocationHandler() {
+
+                                @Override
+                                public Object invoke(Object proxy, Method method, Object[] args) {
+                                    switch (method.getName()) {
+                                        case "scheduleSyncDelayedTask":
+                                            return schedule((Runnable) args[1], args.length > 2 ? (Long) args[2] : 0L);
+                                        case "cancelTask":
+                                            tasks.remove(args[0]);
+                                            return null;
+                                        case "cancelTasks":
+                                            tasks.clear();
+                                            return null;
+                                        default:
+                                            return defaultValue(proxy, method, args);
+                                    }
+                                }
+
+                            });
+            server = (Server) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { Server.class, marker },
+                            new InvocationHandler() {
+
+                                @Override
+                                public Object invoke(Object proxy, Method method, Object[] args) {
+                                    switch (method.getName()) {
+                                        case "getOnlinePlayers":
+                                            return new ArrayList<>(online);
+                                        case "getPluginManager":
+                                            return pluginManager;
+                                        case "getScheduler":
+                                            return scheduler;
+                                        case "isPrimaryThread":
+                                            return true;
+                                        case "getLogger":
+                                            return Logger.getLogger("FakeServer");
+                                        case "getName":
+                                        case "getVersion":
+                                        case "getBukkitVersion":
+                                            return "FakeServer";
+                                        default:
+                                            return defaultValue(proxy, method, args);
+                                    }
+                                }
+
+                            });
+            plugin = (Plugin) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { Plugin.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                        case "getLogger":
+                            return Logger.getLogger("NametagAPI");
+                        case "getName":
+                            return "NametagAPI";
+                        case "getServer":
+                            return server;
+                        case "isEnabled":
+                            return true;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+
+            });
+
+            Bukkit.setServer(server);
+            NametagManager.load(null, new ArrayList<NametagStore.Team>(), new ArrayList<Nametag>());
+            installed = true;
+        } catch (ClassNotFoundException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Returns a plugin that can be handed to NametagManager, so changes are
+     * flushed and unused teams removed by tasks run from {@link #tick()}.
+     *
+     * @return The plugin.
+     */
+    static Plugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Advances the server by one tick, running every task that is due.
+     * Tasks scheduled while doing so run on a later tick.
+     */
+    static void tick() {
+        currentTick++;
+        List<Runnable> due = new ArrayList<>();
+        Iterator<Task> iterator = tasks.values().iterator();
+
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+
+            if (task.tick <= currentTick) {
+                due.add(task.runnable);
+                iterator.remove();
+            }
+        }
+
+        for (Runnable runnable : due) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * Has the given executor called for every event of the given handler
+     * list until the server is reset.
+     *
+     * @param handlers The event's handler list.
+     * @param executor The executor to call.
+     */
+    static void listen(HandlerList handlers, EventExecutor executor) {
+        Listener listener = new Listener() {};
+        handlers.register(new RegisteredListener(listener, executor, EventPriority.NORMAL, plugin, false));
+        listeners.put(listener, handlers);
+    }
+
+    /**
+     * Sets whether players created from now on keep the packets they are
+     * sent, see {@link #takePackets(Player)}.
+     *
+     * @param recording {@code true} to keep packets.
+     */
+    static void setRecording(boolean recording) {
+        FakeServer.recording = recording;
+    }
+
+    /**
+     * Returns the team packets sent to the given player since this was last
+     * called, in the order they were sent.
+     *
+     * @param player A player created while recording.
+     * @return The packets.
+     */
+    static List<PacketPlayOutScoreboardTeam> takePackets(Player player) {
+        List<PacketPlayOutScoreboardTeam> packets = new ArrayList<>();
+
+        for (Packet packet : ((CraftPlayer) player).getHandle().playerConnection.takePackets()) {
+            packets.add((PacketPlayOutScoreboardTeam) packet);
+        }
+
+        return packets;
+    }
+
+    /**
+     * Returns the channel packets written straight to the given player end
+     * up in.
+     *
+     * @param player A player created by this server.
+     * @return The player's channel.
+     */
+    static Channel getChannel(Player player) {
+        return ((CraftPlayer) player).getHandle().playerConnection.networkManager.channel;
+    }
+
+    /**
+     * Returns the world with the given name, creating it if needed.
+     *
+     * @param name The world's name.
+     * @return The world.
+     */
+    static World getWorld(final String name) {
+        World world = worlds.get(name);
+
+        if (world == null) {
+            final UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+            world = (World) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { World.class }, new InvocationHandler() {
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                        case "getName":
+                            return name;
+                        case "getUID":
+                            return id;
+                        default:
+                            return defaultValue(proxy, method, args);
+                    }
+                }
+
+            });
+            worlds.put(name, world);
+        }
+
+        return world;
+    }
+
+    /**
+     * Moves the given player. Players start at the origin of the world named
+     * "world".
+     *
+     * @param player The player to move.
+     * @param world The name of the world to move them to.
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @param z The z coordinate.
+     */
+    static void teleport(Player player, String world, double x, double y, double z) {
+        locations.put(player.getUniqueId(), new Location(getWorld(world), x, y, z));
+    }
+
+    /**
+     * Connects a new player and sends them the current teams.
+     *
+     * @param name The player's name.
+     * @return The player.
+     */
+    static Player join(String name) {
+        Player player = newPlayer(name);
+        online.add(player);
+        NametagManager.sendTeamsToPlayer(player);
+        return player;
+    }
+
+    /**
+     * Creates a player that is not online.
+     *
+     * @param name The player's name.
+     * @return The player.
+     */
+    static Player newPlayer(final String name) {
+        final EntityPlayer handle = new EntityPlayer();
+        final UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        handle.playerConnection.setRecording(recording);
+
+        return (Player) Proxy.newProxyInstance(FakeServer.class.getClassLoader(), new Class<?>[] { CraftPlayer.class }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getHandle":
+                        return handle;
+                    case "getName":
+                        return name;
+                    case "getUniqueId":
+                        return id;
+                    case "getWorld":
+                        return getLocation(id).getWorld();
+                    case "getLocation":
+                        return getLocation(id).clone();
+                    default:
+                        return defaultValue(proxy, method, args);
+                }
+            }
+
+        });
+    }
+
+    /**
+     * Returns the players that are online.
+     *
+     * @return A copy of the online players.
+     */
+    static List<Player> getOnline() {
+        return new ArrayList<>(online);
+    }
+
+    /**
+     * Disconnects every player, removes every team and drops every scheduled
+     * task and listener. NametagManager is left without a plugin, as after
+     * {@link #install()}.
+     */
+    static void reset() {
+        NametagManager.reset();
+
+        for (Player player : online) {
+            NametagManager.removeViewer(player);
+        }
+
+        online.clear();
+        locations.clear();
+        tasks.clear();
+        recording = false;
+
+        for (Map.Entry<Listener, HandlerList> listener : listeners.entrySet()) {
+            listener.getValue().unregister(listener.getKey());
+        }
+
+        listeners.clear();
+        PacketDispatcher.setDirect(false);
+        NametagManager.setInterest(InterestMode.GLOBAL, 0);
+        NametagManager.setEvictionDelay(0);
+        NametagManager.setMissedLimit(NametagManager.DEFAULT_MISSED_LIMIT);
+        NametagManager.load(null, new ArrayList<NametagStore.Team>(), new ArrayList<Nametag>());
+    }
+
+    private static Location getLocation(UUID id) {
+        Location location = locations.get(id);
+        return location != null ? location : new Location(getWorld("world"), 0, 0, 0);
+    }
+
+    private static int schedule(Runnable runnable, long delay) {
+        tasks.put(++lastTask, new Task(runnable, currentTick + Math.max(1, delay)));
+        return lastTask;
+    }
+
+    private static void callEvent(Event event) {
+        for (RegisteredListener listener : event.getHandlers().getRegisteredListeners()) {
+            try {
+                listener.callEvent(event);
+            } catch (EventException exc) {
+                throw new IllegalStateException(exc);
+            }
+        }
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "Fake" + proxy.getClass().getInterfaces()[0].getSimpleName();
+            default:
+                break;
+        }
+
+        Class<?> type = method.getReturnType();
+
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == double.class) {
+            return 0D;
+        }
+
+        return null;
+    }
+
+    /**
+     * A task scheduled to run on a given tick.
+     */
+    private static final class Task {
+
+        private final Runnable runnable;
+        private final long tick;
+
+        private Task(Runnable runnable, long tick) {
+            this.runnable = runnable;
+            this.tick = tick;
+        }
+
+    }
+
+}
@@ -0,0 +1,23 @@
+package io.isles.nametagapi;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Runs each test against the fake server. The server is installed before the
+ * first test, players created during a test keep the packets they are sent,
+ * and everything is reset after each test, see {@link FakeServer#reset()}.
+ */
+final class FakeServerRule extends ExternalResource {
+
+    @Override
+    protected void before() {
+        FakeServer.install();
+        FakeServer.setRecording(true);
+    }
+
+    @Override
+    protected void after() {
+        FakeServer.reset();
+    }
+
+}
@@ -0,0 +1,50 @@
+package io.netty.buffer;
+
+import java.util.Arrays;
+
+/**
+ * Stand-in for a Netty buffer backed by a growing byte array.
+ */
+public class ByteBuf {
+
+    private byte[] array;
+    private int readerIndex;
+    private int writerIndex;
+
+    ByteBuf(byte[] array, int writerIndex) {
+        this.array = array;
+        this.writerIndex = writerIndex;
+    }
+
+    public ByteBuf writeByte(int value) {
+        if (writerIndex == array.length) {
+            array = Arrays.copyOf(array, Math.max(16, array.length * 2));
+        }
+
+        array[writerIndex++] = (byte) value;
+        return this;
+    }
+
+    public int readableBytes() {
+        return writerIndex - readerIndex;
+    }
+
+    public ByteBuf readBytes(byte[] destination) {
+        if (destination.length > readableBytes()) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        System.arraycopy(array, readerIndex, destination, 0, destination.length);
+        readerIndex += destination.length;
+        return this;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public boolean release() {
+        return true;
+    }
+
+}
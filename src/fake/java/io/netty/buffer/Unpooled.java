@@ -0,0 +1,19 @@
+package io.netty.buffer;
+
+/**
+ * Stand-in for Netty's buffer factory, used by the benchmarks and tests.
+ */
+public final class Unpooled {
+
+    /** Prevent class instantiation. */
+    private Unpooled() {}
+
+    public static ByteBuf buffer() {
+        return new ByteBuf(new byte[0], 0);
+    }
+
+    public static ByteBuf wrappedBuffer(byte[] array) {
+        return new ByteBuf(array, array.length);
+    }
+
+}
@@ -0,0 +1,44 @@
+package io.netty.channel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for a player's network channel that keeps what is written to it,
+ * and how much of that has been flushed, instead of sending it anywhere.
+ */
+public class Channel {
+
+    private final ChannelPipeline pipeline = new ChannelPipeline();
+    private final List<Object> written = new ArrayList<>();
+    private int flushed;
+    private int flushes;
+
+    public synchronized Channel write(Object message) {
+        written.add(message);
+        return this;
+    }
+
+    public synchronized Channel flush() {
+        flushed = written.size();
+        flushes++;
+        return this;
+    }
+
+    public ChannelPipeline pipeline() {
+        return pipeline;
+    }
+
+    public synchronized List<Object> getWritten() {
+        return new ArrayList<>(written);
+    }
+
+    public synchronized List<Object> getFlushed() {
+        return new ArrayList<>(written.subList(0, flushed));
+    }
+
+    public synchronized int getFlushes() {
+        return flushes;
+    }
+
+}
@@ -0,0 +1,28 @@
+package io.netty.channel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for a channel's pipeline that only keeps its handlers by name.
+ */
+public class ChannelPipeline {
+
+    private final Map<String, Object> handlers = new HashMap<>();
+
+    public synchronized ChannelPipeline addLast(String name, Object handler) {
+        handlers.put(name, handler);
+        return this;
+    }
+
+    public synchronized Object replace(String oldName, String newName, Object handler) {
+        Object old = handlers.remove(oldName);
+        handlers.put(newName, handler);
+        return old;
+    }
+
+    public synchronized Object get(String name) {
+        return handlers.get(name);
+    }
+
+}
@@ -0,0 +1,10 @@
+package net.minecraft.server.v1_8_R3;
+
+/**
+ * Stand-in for the server's player entity, used by the benchmarks and tests.
+ */
+public class EntityPlayer {
+
+    public PlayerConnection playerConnection = new PlayerConnection();
+
+}
@@ -0,0 +1,25 @@
+package net.minecraft.server.v1_8_R3;
+
+/**
+ * Stand-in for the server's protocol states, which only knows the id of the
+ * team packet.
+ */
+public enum EnumProtocol {
+
+    HANDSHAKING,
+    PLAY,
+    STATUS,
+    LOGIN;
+
+    /** The id of the team packet in the 1.8 protocol. */
+    public static final int TEAM_PACKET_ID = 0x3E;
+
+    public Integer a(EnumProtocolDirection direction, Packet packet) {
+        if (this == PLAY && direction == EnumProtocolDirection.CLIENTBOUND && packet instanceof PacketPlayOutScoreboardTeam) {
+            return TEAM_PACKET_ID;
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,12 @@
+package net.minecraft.server.v1_8_R3;
+
+/**
+ * Stand-in for the direction packets travel in, used by the benchmarks and
+ * tests.
+ */
+public enum EnumProtocolDirection {
+
+    SERVERBOUND,
+    CLIENTBOUND;
+
+}
@@ -0,0 +1,17 @@
+package net.minecraft.server.v1_8_R3;
+
+import io.netty.channel.Channel;
+
+/**
+ * Stand-in for the server's network manager, whose channel encodes packets
+ * with the server's own encoder.
+ */
+public class NetworkManager {
+
+    public Channel channel = new Channel();
+
+    public NetworkManager() {
+        channel.pipeline().addLast("encoder", new PacketEncoder());
+    }
+
+}
@@ -0,0 +1,12 @@
+package net.minecraft.server.v1_8_R3;
+
+import java.io.IOException;
+
+/**
+ * Stand-in for the server's packet type, used by the benchmarks and tests.
+ */
+public interface Packet {
+
+    void b(PacketDataSerializer serializer) throws IOException;
+
+}
@@ -0,0 +1,44 @@
+package net.minecraft.server.v1_8_R3;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Stand-in for the server's packet serializer, writing VarInts and strings
+ * the way the protocol does.
+ */
+public class PacketDataSerializer {
+
+    private final ByteBuf buffer;
+
+    public PacketDataSerializer(ByteBuf buffer) {
+        this.buffer = buffer;
+    }
+
+    public PacketDataSerializer writeByte(int value) {
+        buffer.writeByte(value);
+        return this;
+    }
+
+    public void b(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+
+        buffer.writeByte(value);
+    }
+
+    public PacketDataSerializer a(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        b(bytes.length);
+
+        for (byte b : bytes) {
+            buffer.writeByte(b);
+        }
+
+        return this;
+    }
+
+}
@@ -0,0 +1,8 @@
+package net.minecraft.server.v1_8_R3;
+
+/**
+ * Stand-in for the server's packet encoder, used by the benchmarks and tests.
+ */
+public class PacketEncoder {
+
+}
@@ -0,0 +1,66 @@
+package net.minecraft.server.v1_8_R3;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Stand-in for the 1.8 team packet with the same fields and encoding, used
+ * by the benchmarks and tests.
+ */
+public class PacketPlayOutScoreboardTeam implements Packet {
+
+    private String a = "";
+    private String b = "";
+    private String c = "";
+    private String d = "";
+    private String e = "always";
+    private int f = -1;
+    private final Collection<String> g = new ArrayList<>();
+    private int h;
+    private int i;
+
+    @Override
+    public void b(PacketDataSerializer serializer) throws IOException {
+        serializer.a(a);
+        serializer.writeByte(h);
+
+        if (h == 0 || h == 2) {
+            serializer.a(b);
+            serializer.a(c);
+            serializer.a(d);
+            serializer.writeByte(i);
+            serializer.a(e);
+            serializer.writeByte(f);
+        }
+
+        if (h == 0 || h == 3 || h == 4) {
+            serializer.b(g.size());
+
+            for (String member : g) {
+                serializer.a(member);
+            }
+        }
+    }
+
+    public String getName() {
+        return a;
+    }
+
+    public String getPrefix() {
+        return c;
+    }
+
+    public String getSuffix() {
+        return d;
+    }
+
+    public Collection<String> getMembers() {
+        return g;
+    }
+
+    public int getMode() {
+        return h;
+    }
+
+}
@@ -0,0 +1,39 @@
+package net.minecraft.server.v1_8_R3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for a player's connection that counts the packets sent through
+ * it instead of writing them anywhere. Tests may have the packets kept as
+ * well.
+ */
+public class PlayerConnection {
+
+    public final NetworkManager networkManager = new NetworkManager();
+    private int sent;
+    private List<Packet> packets;
+
+    public void sendPacket(Packet packet) {
+        sent++;
+
+        if (packets != null) {
+            packets.add(packet);
+        }
+    }
+
+    public int getSent() {
+        return sent;
+    }
+
+    public void setRecording(boolean recording) {
+        packets = recording ? new ArrayList<Packet>() : null;
+    }
+
+    public List<Packet> takePackets() {
+        List<Packet> taken = new ArrayList<>(packets);
+        packets.clear();
+        return taken;
+    }
+
+}
@@ -0,0 +1,9 @@
+package org.bukkit.craftbukkit.v1_8_R3;
+
+/**
+ * Marker implemented by the fake server, so the proxy class is defined in
+ * this package and NametagAPI detects the server version as v1_8_R3.
+ */
+interface CraftServer {
+
+}
@@ -0,0 +1,14 @@
+package org.bukkit.craftbukkit.v1_8_R3.entity;
+
+import net.minecraft.server.v1_8_R3.EntityPlayer;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Stand-in for the server's player implementation, used by the benchmarks and tests.
+ */
+public interface CraftPlayer extends Player {
+
+    EntityPlayer getHandle();
+
+}
@@ -0,0 +1,70 @@
+package io.isles.nametagapi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building one team packet and handing it to every online player,
+ * either on the calling thread or through the packet workers. With workers
+ * this only measures the time the caller spends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int players;
+
+    /** Packet worker threads, or 0 to send on the calling thread. */
+    @Param({ "0", "2" })
+    public int workers;
+
+    private List<Player> viewers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeServer.install();
+
+        for (int i = 0; i < players; i++) {
+            FakeServer.join("Viewer" + i);
+        }
+
+        viewers = FakeServer.getOnline();
+
+        if (workers > 0) {
+            PacketDispatcher.start(workers, 4096);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PacketDispatcher.stop();
+        FakeServer.reset();
+    }
+
+    @Benchmark
+    public void broadcastJoin() {
+        PacketDispatcher.broadcast(new PacketHandler("NTP0", Collections.singletonList("Mover"), 3), viewers);
+    }
+
+}
@@ -0,0 +1,78 @@
+package io.isles.nametagapi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+
+/**
+ * Measures sending every team to a joining player, with a given number of
+ * tagged players spread over a given number of teams. When there are more
+ * teams than players, the teams nobody is in are pinned so they exist too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinSnapshotBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int players;
+
+    @Param({ "30", "1000", "5000" })
+    public int teams;
+
+    private Player joining;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeServer.install();
+        Map<String, Nametag> tags = new HashMap<>();
+
+        for (int i = 0; i < players; i++) {
+            tags.put("Player" + i, new Nametag("[T" + (i % teams) + "]", ""));
+        }
+
+        NametagManager.enqueueAll(tags, NametagChangeType.HARD);
+
+        for (int i = players; i < teams; i++) {
+            NametagManager.pin("[T" + i + "]", "");
+        }
+
+        joining = FakeServer.newPlayer("Joining");
+
+        if (NametagManager.getTeamCount() != teams) {
+            throw new IllegalStateException("Expected " + teams + " teams, but there are " + NametagManager.getTeamCount());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FakeServer.reset();
+    }
+
+    @Benchmark
+    public void join() {
+        NametagManager.sendTeamsToPlayer(joining);
+        NametagManager.removeViewer(joining);
+    }
+
+}
@@ -0,0 +1,95 @@
+package io.isles.nametagapi;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+
+/**
+ * Measures changing nametags with a given number of players online and teams
+ * registered, including building the packets and sending them to everyone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagUpdateBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int players;
+
+    @Param({ "10", "2000" })
+    public int teams;
+
+    private Map<String, Nametag> rankA;
+    private Map<String, Nametag> rankB;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeServer.install();
+
+        for (int i = 0; i < players; i++) {
+            FakeServer.join("Viewer" + i);
+        }
+
+        Map<String, Nametag> tags = new HashMap<>();
+
+        for (int i = 0; i < teams; i++) {
+            tags.put("Member" + i, new Nametag("[T" + i + "]", ""));
+        }
+
+        NametagManager.enqueueAll(tags, NametagChangeType.HARD);
+        NametagManager.pin("[A]", "");
+        NametagManager.pin("[B]", "");
+
+        rankA = new HashMap<>();
+        rankB = new HashMap<>();
+
+        for (int i = 0; i < 100; i++) {
+            rankA.put("Ranked" + i, new Nametag("[A]", ""));
+            rankB.put("Ranked" + i, new Nametag("[B]", ""));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FakeServer.reset();
+    }
+
+    /** Moves one player between two existing teams: a leave and a join for everyone. */
+    @Benchmark
+    public void movePlayer() {
+        NametagManager.overlap("Mover", (next++ & 1) == 0 ? "[A]" : "[B]", "");
+    }
+
+    /** Moves 100 players between two existing teams in one flush. */
+    @Benchmark
+    public void moveHundredPlayers() {
+        NametagManager.enqueueAll((next++ & 1) == 0 ? rankA : rankB, NametagChangeType.HARD);
+    }
+
+    /** Changes the tag of a player alone in their team: one in-place update for everyone. */
+    @Benchmark
+    public void renameTeam() {
+        NametagManager.overlap("Member0", (next++ & 1) == 0 ? "[Renamed]" : "[T0]", "");
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.isles.nametagapi;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A transport that connects this server to other endpoints in the same
+ * process, delivering each message straight away on the publishing thread.
+ * NametagAPI keeps a single set of teams per process, so the other endpoints
+ * are not full servers; they are code standing in for them, such as a test
+ * publishing changes on behalf of another server or checking what this one
+ * publishes. Useful to try out replication without a network.
+ *
+ * <br>
+ * <br>
+ *
+ * Every transport created from the same {@link Hub} receives the messages
+ * published by all the others, but never its own.
+ *
+ * @author Hyphenical Technologies
+ */
+public final class InMemoryTransport implements ReplicationTransport {
+
+    private final Hub hub;
+    private volatile Receiver receiver;
+
+    private InMemoryTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        hub.transports.add(this);
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        for (InMemoryTransport transport : hub.transports) {
+            Receiver receiver = transport.receiver;
+
+            if (transport != this && receiver != null) {
+                receiver.receive(message.clone());
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        hub.transports.remove(this);
+        receiver = null;
+    }
+
+    /** Connects the transports created from it. */
+    public static final class Hub {
+
+        private final List<InMemoryTransport> transports = new CopyOnWriteArrayList<>();
+
+        /**
+         * Creates a transport connected to every other transport of this hub.
+         *
+         * @return The new transport.
+         */
+        public InMemoryTransport connect() {
+            return new InMemoryTransport(this);
+        }
+
+    }
+
+}
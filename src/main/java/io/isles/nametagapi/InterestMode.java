@@ -0,0 +1,16 @@
+package io.isles.nametagapi;
+
+/**
+ * Decides which viewers are sent the packets moving a player into or out of
+ * a team. Teams themselves are always created and removed for everyone.
+ */
+enum InterestMode {
+
+    /** Every viewer is sent every change. */
+    GLOBAL,
+    /** Viewers are only sent changes to players in the same world. */
+    WORLD,
+    /** Viewers are only sent changes to players in the same world and within a set distance. */
+    RADIUS
+
+}
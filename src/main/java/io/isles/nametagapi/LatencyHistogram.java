@@ -0,0 +1,116 @@
+package io.isles.nametagapi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long an operation takes, in buckets that each cover twice the
+ * range of the one before. Recording never locks, so it is cheap enough to
+ * leave on in production and safe from any thread.
+ *
+ * @author Hyphenical Technologies
+ */
+public final class LatencyHistogram {
+
+    /** Bucket i counts durations below 2^i nanoseconds, the last one the rest. */
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one run of the operation.
+     *
+     * @param nanos How long it took, in nanoseconds.
+     */
+    void record(long nanos) {
+        int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        buckets[bucket].increment();
+        count.increment();
+        total.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Returns the name of the operation this histogram measures.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns how many times the operation was recorded.
+     *
+     * @return The number of runs.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns how long the operation took on average.
+     *
+     * @return The mean duration in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getMeanNanos() {
+        long runs = count.sum();
+        return runs > 0 ? total.sum() / runs : 0;
+    }
+
+    /**
+     * Returns an upper bound of how long the given share of runs took. As
+     * runs are counted in buckets, the bound is within a factor of two.
+     *
+     * @param percentile The share of runs, between 0 and 100.
+     * @return The duration in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long runs = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            runs += counts[i];
+        }
+
+        if (runs == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(runs * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+
+            if (seen >= target && counts[i] > 0) {
+                return 1L << i;
+            }
+        }
+
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * Forgets every recorded run.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+
+        count.reset();
+        total.reset();
+    }
+
+}
@@ -0,0 +1,71 @@
+package io.isles.nametagapi;
+
+/**
+ * A prefix and suffix pair to display around a player's name, used to set the
+ * nametags of many players at once through NametagAPI.
+ *
+ * @author Hyphenical Technologies
+ */
+public final class Nametag {
+
+    private final String prefix;
+    private final String suffix;
+
+    /**
+     * Constructs a new Nametag with the given prefix and suffix.
+     *
+     * @param prefix The prefix to display before the player's name.
+     * @param suffix The suffix to display after the player's name.
+     */
+    public Nametag(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Returns the prefix of this nametag.
+     *
+     * @return The prefix.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the suffix of this nametag.
+     *
+     * @return The suffix.
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof Nametag)) {
+            return false;
+        }
+
+        Nametag other = (Nametag) obj;
+        return equal(prefix, other.prefix) && equal(suffix, other.suffix);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (prefix != null ? prefix.hashCode() : 0) + (suffix != null ? suffix.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Nametag{prefix=" + prefix + ", suffix=" + suffix + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
\ No newline at end of file
@@ -1,9 +1,12 @@
 package io.isles.nametagapi;
 
-import org.bukkit.Bukkit;
-import org.bukkit.plugin.Plugin;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.entity.Player;
 
-import io.isles.nametagapi.NametagChangeEvent.NametagChangeReason;
 import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
 
 /**
@@ -12,43 +15,29 @@ import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
  * 
  * It is recommended to use this class for light use of NametagAPI.
  * 
+ * Changes are queued and applied together at the end of the tick, so setting
+ * the nametags of many players at once only sends one packet per team.
+ * 
  * @author Levi Webb (Original)
  * @author Hyphenical Technologies (Modifiers)
  */
 public final class NametagAPI {
 
-    private static Plugin plugin;
-
-    static {
-        plugin = NametagPlugin.getInstance();
-    }
-
     /** Prevent class instantiation. */
     private NametagAPI() {}
 
     /**
      * Sets the custom prefix for the given player <br>
      * <br>
-     * This method schedules a task with the request to change the player's name
-     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * This method queues the change until the end of the tick to prevent it
+     * from clashing with the PlayerJoinEvent in NametagAPI. Changes made to
+     * the same player within one tick are combined before they are sent.
      * 
      * @param player The player to set the prefix for.
      * @param prefix The prefix to use.
      */
     public static void setPrefix(final String player, final String prefix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), prefix, "", NametagChangeType.SOFT, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
-
-                if (!event.isCancelled()) {
-                    NametagManager.update(player, prefix, "");
-                }
-            }
-
-        });
+        NametagManager.enqueue(player, prefix, "", NametagChangeType.SOFT);
     }
 
     /**
@@ -58,19 +47,7 @@ public final class NametagAPI {
      * @param suffix The suffix to use.
      */
     public static void setSuffix(final String player, final String suffix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), "", suffix, NametagChangeType.SOFT, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
-
-                if (!event.isCancelled()) {
-                    NametagManager.update(player, "", suffix);
-                }
-            }
-
-        });
+        NametagManager.enqueue(player, "", suffix, NametagChangeType.SOFT);
     }
 
     /**
@@ -83,19 +60,7 @@ public final class NametagAPI {
      * @param suffix The suffix to use.
      */
     public static void setNametagHard(final String player, final String prefix, final String suffix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), prefix, suffix, NametagChangeType.HARD, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
-
-                if (!event.isCancelled()) {
-                    NametagManager.overlap(player, prefix, suffix);
-                }
-            }
-
-        });
+        NametagManager.enqueue(player, prefix, suffix, NametagChangeType.HARD);
     }
 
     /**
@@ -108,19 +73,7 @@ public final class NametagAPI {
      * @param suffix The suffix to use.
      */
     public static void setNametagSoft(final String player, final String prefix, final String suffix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), prefix, suffix, NametagChangeType.SOFT, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
-
-                if (!event.isCancelled()) {
-                    NametagManager.update(player, prefix, suffix);
-                }
-            }
-
-        });
+        NametagManager.enqueue(player, prefix, suffix, NametagChangeType.SOFT);
     }
 
     /**
@@ -140,19 +93,7 @@ public final class NametagAPI {
      * @param suffix The suffix to use.
      */
     public static void updateNametagHard(final String player, final String prefix, final String suffix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), prefix, suffix, NametagChangeType.HARD, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
-
-                if (!event.isCancelled()) {
-                    NametagManager.overlap(player, prefix, suffix);
-                }
-            }
-
-        });
+        NametagManager.enqueue(player, prefix, suffix, NametagChangeType.HARD);
     }
 
     /**
@@ -169,47 +110,105 @@ public final class NametagAPI {
      * <br>
      * <br>
      * 
-     * This method schedules a task with the request to change the player's name
-     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * This method queues the change until the end of the tick to prevent it
+     * from clashing with the PlayerJoinEvent in NametagAPI. Changes made to
+     * the same player within one tick are combined before they are sent.
      * 
      * @param player The player to set the prefix and suffix for.
      * @param prefix The prefix to use.
      * @param suffix The suffix to use.
      */
     public static void updateNametagSoft(final String player, final String prefix, final String suffix) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+        NametagManager.enqueue(player, prefix, suffix, NametagChangeType.SOFT);
+    }
 
-            @Override
-            public void run() {
-                NametagChangeEvent event = new NametagChangeEvent(player, getPrefix(player), getSuffix(player), prefix, suffix, NametagChangeType.SOFT, NametagChangeReason.CUSTOM);
-                Bukkit.getServer().getPluginManager().callEvent(event);
+    /**
+     * Sets the custom given prefix and suffix to the player without waiting
+     * for the end of the tick. When called from the main thread, the change
+     * is visible to {@link #getPrefix(String)} and sent to players before
+     * this method returns. When called from any other thread, it is applied
+     * on the main thread at the end of the tick and the returned future is
+     * completed then.
+     * 
+     * @param player The player to set the prefix and suffix for.
+     * @param prefix The prefix to use.
+     * @param suffix The suffix to use.
+     * @param type {@link NametagChangeType#HARD} to remove the current prefix
+     *            or suffix when the given one is null/empty, or
+     *            {@link NametagChangeType#SOFT} to keep it.
+     * @return A future completed with {@code true} once the nametag is set,
+     *         or {@code false} if the change was cancelled.
+     */
+    public static CompletableFuture<Boolean> setNametagNow(String player, String prefix, String suffix, NametagChangeType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Change type cannot be null");
+        }
+
+        return NametagManager.submit(player, prefix, suffix, type);
+    }
+
+    /**
+     * Clears the given player's custom prefix and suffix without waiting for
+     * the end of the tick. See {@link #setNametagNow(String, String, String,
+     * NametagChangeType)} for when the change is applied.
+     * 
+     * @param player The player to reset.
+     * @return A future completed with {@code true} once the nametag is
+     *         cleared.
+     */
+    public static CompletableFuture<Boolean> resetNametagNow(String player) {
+        return NametagManager.submit(player, null, null, null);
+    }
+
+    /**
+     * Sets the custom given prefix and suffix to each of the players,
+     * overwriting any existing prefix or suffix. If a given prefix or suffix is
+     * null/empty, it will be removed from the player. <br>
+     * <br>
+     * All of the changes are applied at the end of the tick together, so the
+     * players moving into or out of the same team share a single packet.
+     * 
+     * @param nametags The prefix and suffix to use for each player's name.
+     */
+    public static void setNametagsHard(Map<String, Nametag> nametags) {
+        NametagManager.enqueueAll(nametags, NametagChangeType.HARD);
+    }
 
-                if (!event.isCancelled()) {
-                    NametagManager.update(player, prefix, suffix);
-                }
-            }
+    /**
+     * Sets the custom given prefix and suffix to each of the players. If a
+     * given prefix or suffix is empty/null, it will be ignored. <br>
+     * <br>
+     * All of the changes are applied at the end of the tick together, so the
+     * players moving into or out of the same team share a single packet.
+     * 
+     * @param nametags The prefix and suffix to use for each player's name.
+     */
+    public static void setNametagsSoft(Map<String, Nametag> nametags) {
+        NametagManager.enqueueAll(nametags, NametagChangeType.SOFT);
+    }
 
-        });
+    /**
+     * Clears the custom prefix and suffix of each of the given players at the
+     * end of the tick, sending a single packet per team they leave.
+     * 
+     * @param players The players to reset.
+     */
+    public static void resetNametags(Collection<String> players) {
+        NametagManager.enqueueClearAll(players);
     }
 
     /**
      * Clears the given player's custom prefix and suffix and sets it to the
      * group node that applies to that player. <br>
      * <br>
-     * This method schedules a task with the request to change the player's name
-     * to prevent it from clashing with the PlayerJoinEvent in NametagAPI.
+     * This method queues the change until the end of the tick to prevent it
+     * from clashing with the PlayerJoinEvent in NametagAPI. Changes made to
+     * the same player within one tick are combined before they are sent.
      * 
      * @param player The player to reset.
      */
     public static void resetNametag(final String player) {
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-
-            @Override
-            public void run() {
-                NametagManager.clear(player);
-            }
-
-        });
+        NametagManager.enqueueClear(player);
     }
 
     /**
@@ -253,4 +252,271 @@ public final class NametagAPI {
         return NametagManager.isManaged(player);
     }
 
+    /**
+     * Publishes the nametag changes made on this server through the given
+     * transport, and applies the changes other servers publish through it.
+     * Replaces the transport set before, including the BungeeCord plugin
+     * messaging one enabled in the config. <br>
+     * <br>
+     * Only changes made through the queued methods of this class are
+     * published. Changes received from other servers do not fire events.
+     * 
+     * @param transport The transport to use, or {@code null} to stop
+     *            replicating.
+     */
+    public static void setReplicationTransport(ReplicationTransport transport) {
+        if (transport != null) {
+            NametagReplicator.start(transport);
+        } else {
+            NametagReplicator.stop();
+        }
+    }
+
+    /**
+     * Creates the team for the given prefix and suffix straight away and
+     * keeps it for as long as the plugin runs, even while no player has the
+     * tag. Pinning tags known up front, such as ranks, means setting them
+     * later never has to create a team for every player online. <br>
+     * <br>
+     * Pinned teams can also be listed under pinned-teams in the config.
+     * 
+     * @param prefix The prefix of the tag.
+     * @param suffix The suffix of the tag.
+     */
+    public static void pinNametag(String prefix, String suffix) {
+        NametagManager.pin(prefix, suffix);
+    }
+
+    /**
+     * Undoes {@link #pinNametag(String, String)}, letting the team be removed
+     * once no player has the tag.
+     * 
+     * @param prefix The prefix of the tag.
+     * @param suffix The suffix of the tag.
+     */
+    public static void unpinNametag(String prefix, String suffix) {
+        NametagManager.unpin(prefix, suffix);
+    }
+
+    /**
+     * Shows the given viewer a prefix and suffix for a player that differs
+     * from the one everyone else sees, such as a team color that depends on
+     * whether the viewer is an ally. If a given prefix or suffix is
+     * null/empty, it is left out. <br>
+     * <br>
+     * The change is sent to the viewer straight away and does not fire any
+     * events. Until {@link #resetNametagFor(Player, String)} is called the
+     * viewer keeps seeing this tag, whatever the player's global nametag is
+     * changed to. Has no effect if the viewer is not online, and the tag is
+     * forgotten when the viewer leaves.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player the tag is shown for.
+     * @param prefix The prefix to use.
+     * @param suffix The suffix to use.
+     */
+    public static void setNametagFor(Player viewer, String player, String prefix, String suffix) {
+        NametagManager.updateFor(viewer, player, prefix, suffix);
+    }
+
+    /**
+     * Makes the given viewer see a player's global nametag again, undoing
+     * {@link #setNametagFor(Player, String, String, String)}.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player the tag is shown for.
+     */
+    public static void resetNametagFor(Player viewer, String player) {
+        NametagManager.resetFor(viewer, player);
+    }
+
+    /**
+     * Returns the prefix the given viewer sees for a player.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player to check.
+     * @return The player's prefix as the viewer sees it, or an empty string
+     *         if there is none.
+     */
+    public static String getPrefixFor(Player viewer, String player) {
+        return NametagManager.getPrefix(viewer.getUniqueId(), player);
+    }
+
+    /**
+     * Returns the suffix the given viewer sees for a player.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player to check.
+     * @return The player's suffix as the viewer sees it, or an empty string
+     *         if there is none.
+     */
+    public static String getSuffixFor(Player viewer, String player) {
+        return NametagManager.getSuffix(viewer.getUniqueId(), player);
+    }
+
+    /**
+     * Sets the custom prefix for the online player with the given unique id.
+     * Has no effect if the player is not online.
+     * 
+     * @param player The unique id of the player to set the prefix for.
+     * @param prefix The prefix to use.
+     * @see #setPrefix(String, String)
+     */
+    public static void setPrefix(UUID player, String prefix) {
+        String name = NametagManager.getName(player);
+
+        if (name != null) {
+            setPrefix(name, prefix);
+        }
+    }
+
+    /**
+     * Sets the custom suffix for the online player with the given unique id.
+     * Has no effect if the player is not online.
+     * 
+     * @param player The unique id of the player to set the suffix for.
+     * @param suffix The suffix to use.
+     * @see #setSuffix(String, String)
+     */
+    public static void setSuffix(UUID player, String suffix) {
+        String name = NametagManager.getName(player);
+
+        if (name != null) {
+            setSuffix(name, suffix);
+        }
+    }
+
+    /**
+     * Sets the custom given prefix and suffix to the online player with the
+     * given unique id, overwriting any existing prefix or suffix. Has no
+     * effect if the player is not online.
+     * 
+     * @param player The unique id of the player.
+     * @param prefix The prefix to use.
+     * @param suffix The suffix to use.
+     * @see #setNametagHard(String, String, String)
+     */
+    public static void setNametagHard(UUID player, String prefix, String suffix) {
+        String name = NametagManager.getName(player);
+
+        if (name != null) {
+            setNametagHard(name, prefix, suffix);
+        }
+    }
+
+    /**
+     * Sets the custom given prefix and suffix to the online player with the
+     * given unique id, ignoring an empty/null prefix or suffix. Has no effect
+     * if the player is not online.
+     * 
+     * @param player The unique id of the player.
+     * @param prefix The prefix to use.
+     * @param suffix The suffix to use.
+     * @see #setNametagSoft(String, String, String)
+     */
+    public static void setNametagSoft(UUID player, String prefix, String suffix) {
+        String name = NametagManager.getName(player);
+
+        if (name != null) {
+            setNametagSoft(name, prefix, suffix);
+        }
+    }
+
+    /**
+     * Sets the custom given prefix and suffix to the online player with the
+     * given unique id without waiting for the end of the tick.
+     * 
+     * @param player The unique id of the player.
+     * @param prefix The prefix to use.
+     * @param suffix The suffix to use.
+     * @param type How an empty/null prefix or suffix is treated.
+     * @return A future completed with {@code true} once the nametag is set,
+     *         or {@code false} if the change was cancelled or the player is
+     *         not online.
+     * @see #setNametagNow(String, String, String, NametagChangeType)
+     */
+    public static CompletableFuture<Boolean> setNametagNow(UUID player, String prefix, String suffix, NametagChangeType type) {
+        String name = NametagManager.getName(player);
+        return name != null ? setNametagNow(name, prefix, suffix, type) : CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Clears the custom prefix and suffix of the online player with the given
+     * unique id. Has no effect if the player is not online.
+     * 
+     * @param player The unique id of the player to reset.
+     * @see #resetNametag(String)
+     */
+    public static void resetNametag(UUID player) {
+        String name = NametagManager.getName(player);
+
+        if (name != null) {
+            resetNametag(name);
+        }
+    }
+
+    /**
+     * Clears the custom prefix and suffix of the online player with the given
+     * unique id without waiting for the end of the tick.
+     * 
+     * @param player The unique id of the player to reset.
+     * @return A future completed with {@code true} once the nametag is
+     *         cleared, or {@code false} if the player is not online.
+     * @see #resetNametagNow(String)
+     */
+    public static CompletableFuture<Boolean> resetNametagNow(UUID player) {
+        String name = NametagManager.getName(player);
+        return name != null ? resetNametagNow(name) : CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Returns the prefix of the online player with the given unique id.
+     * 
+     * @param player The unique id of the player to check.
+     * @return The player's prefix, or an empty string if there is none or the
+     *         player is not online.
+     */
+    public static String getPrefix(UUID player) {
+        String name = NametagManager.getName(player);
+        return name != null ? getPrefix(name) : "";
+    }
+
+    /**
+     * Returns the suffix of the online player with the given unique id.
+     * 
+     * @param player The unique id of the player to check.
+     * @return The player's suffix, or an empty string if there is none or the
+     *         player is not online.
+     */
+    public static String getSuffix(UUID player) {
+        String name = NametagManager.getName(player);
+        return name != null ? getSuffix(name) : "";
+    }
+
+    /**
+     * Returns the entire nametag of the online player with the given unique
+     * id.
+     * 
+     * @param player The unique id of the player to check.
+     * @return The player's prefix, actual name, and suffix in one string, or
+     *         {@code null} if the player is not online.
+     */
+    public static String getNametag(UUID player) {
+        String name = NametagManager.getName(player);
+        return name != null ? getNametag(name) : null;
+    }
+
+    /**
+     * Returns whether the online player with the given unique id currently
+     * has a custom nametag applied.
+     * 
+     * @param player The unique id of the player to check.
+     * @return {@code true} if there is a custom nametag set, otherwise
+     *         {@code false}.
+     */
+    public static boolean hasCustomNametag(UUID player) {
+        String name = NametagManager.getName(player);
+        return name != null && hasCustomNametag(name);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package io.isles.nametagapi;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * This event is fired once for every batch of queued nametag changes, after
+ * the {@link NametagChangeEvent} of each change, carrying the final nametag of
+ * every player changed on this server in the batch. Listening to this event
+ * costs a single dispatch per batch instead of one per player.
+ *
+ * <br>
+ * <br>
+ *
+ * Single changes may be cancelled or modified through {@link #getChanges()},
+ * and cancelling the event itself discards every change it carries. Changes
+ * received from other servers through replication are not part of the event
+ * and are applied regardless.
+ */
+public class NametagBatchChangeEvent extends Event implements Cancellable {
+
+    private static final HandlerList handlers = new HandlerList();
+    private final List<Change> changes;
+    private boolean cancelled;
+
+    /**
+     * <b><i>NOTICE:</i></b> This is meant to be an internal event. Manually
+     * firing this event is unnecessary as this library handles it.
+     *
+     * <br>
+     * <br>
+     *
+     * Constructs a new NametagBatchChangeEvent with the given changes.
+     *
+     * @param changes The changes made in this batch.
+     */
+    public NametagBatchChangeEvent(List<Change> changes) {
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Sets whether this event should be cancelled or not.
+     *
+     * @param cancelled the boolean to set as the cancelled state.
+     */
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Returns whether this event has been cancelled or not.
+     *
+     * @return {@code true} if the event is cancelled, {@code false} otherwise.
+     */
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * Returns the changes made in this batch, one for each player.
+     *
+     * @return An unmodifiable list of the changes.
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Get the event's {@code HandlerList}.
+     *
+     * @return HandlerList of current handlers for this event.
+     */
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+
+    /**
+     * The final nametag change of one player within a batch. A change whose
+     * prefix and suffix are both {@code null} resets the player's nametag.
+     */
+    public static class Change {
+
+        private final String player;
+        private final String oldPrefix;
+        private final String oldSuffix;
+        private String newPrefix;
+        private String newSuffix;
+        private boolean cancelled;
+
+        /**
+         * Constructs a new Change with the given properties.
+         *
+         * @param player The player this change is associated with.
+         * @param oldPrefix The current prefix for the player.
+         * @param oldSuffix The current suffix for the player.
+         * @param newPrefix The prefix to set for the player, or {@code null}.
+         * @param newSuffix The suffix to set for the player, or {@code null}.
+         */
+        public Change(String player, String oldPrefix, String oldSuffix, String newPrefix, String newSuffix) {
+            this.player = player;
+            this.oldPrefix = oldPrefix;
+            this.oldSuffix = oldSuffix;
+            this.newPrefix = newPrefix;
+            this.newSuffix = newSuffix;
+        }
+
+        /**
+         * Sets whether this change should be cancelled or not.
+         *
+         * @param cancelled the boolean to set as the cancelled state.
+         */
+        public void setCancelled(boolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Returns whether this change has been cancelled or not.
+         *
+         * @return {@code true} if the change is cancelled, {@code false}
+         *         otherwise.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Returns the player's name who is getting their nametag changed.
+         *
+         * @return The player's name.
+         */
+        public String getPlayerName() {
+            return player;
+        }
+
+        /**
+         * Returns the prefix that the player currently has.
+         *
+         * @return the current prefix.
+         */
+        public String getCurrentPrefix() {
+            return oldPrefix;
+        }
+
+        /**
+         * Returns the suffix that the player currently has.
+         *
+         * @return The current suffix.
+         */
+        public String getCurrentSuffix() {
+            return oldSuffix;
+        }
+
+        /**
+         * Returns the prefix that is going to be set if this change is not
+         * cancelled.
+         *
+         * @return The prefix to set, or {@code null}.
+         */
+        public String getPrefix() {
+            return newPrefix;
+        }
+
+        /**
+         * Returns the suffix that is going to be set if this change is not
+         * cancelled.
+         *
+         * @return The suffix to set, or {@code null}.
+         */
+        public String getSuffix() {
+            return newSuffix;
+        }
+
+        /**
+         * Sets the prefix to set if this change is not cancelled.
+         *
+         * @param prefix The prefix to set.
+         */
+        public void setPrefix(String prefix) {
+            newPrefix = prefix;
+        }
+
+        /**
+         * Sets the suffix to set if this change is not cancelled.
+         *
+         * @param suffix The suffix to set.
+         */
+        public void setSuffix(String suffix) {
+            newSuffix = suffix;
+        }
+
+        /**
+         * Returns whether this change resets the player's nametag.
+         *
+         * @return {@code true} if both the prefix and suffix to set are
+         *         {@code null}.
+         */
+        public boolean isReset() {
+            return newPrefix == null && newSuffix == null;
+        }
+
+    }
+
+}
\ No newline at end of file
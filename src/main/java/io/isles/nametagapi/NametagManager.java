@@ -1,24 +1,46 @@
 package io.isles.nametagapi;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
+import org.bukkit.event.HandlerList;
 import org.bukkit.plugin.Plugin;
 
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeReason;
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+
 /**
  * This class dynamically creates teams with numerical names and certain
  * prefixes/suffixes (it ignores teams with other characters) to assign unique
  * prefixes and suffixes to specific players in the game. This class makes edits
  * to the <b>scoreboard.dat</b> file, adding and removing teams on the fly.
  * 
+ * <br>
+ * <br>
+ * 
+ * Lookups of a player's prefix and suffix do not lock and are safe from any
+ * thread. Changes to teams are made by one thread at a time while holding
+ * {@link #stateLock}, which also keeps the packets they send in order.
+ * 
  * @author Levi Webb (Original)
  * @author Hyphenical Technologies (Modifiers)
  */
@@ -26,464 +48,1703 @@ final class NametagManager {
 
     /** Prefix to append to all team names. */
     private static final String TEAM_NAME_PREFIX = "NTP";
-    private static Map<TeamInfo, List<String>> teams = new HashMap<>();
-    private static List<Integer> list = new ArrayList<>();
+    /** The number of changes a viewer may miss before they catch up on all of them. */
+    static final int DEFAULT_MISSED_LIMIT = 512;
+    /**
+     * Every registered team mapped to its members, by their name in lower case
+     * to the name they were sent with.
+     */
+    private static Map<TeamInfo, Map<String, String>> teams = new HashMap<>();
+    /** Reverse index of every managed player, by name in lower case, to their team. */
+    private static Map<String, TeamInfo> players = new ConcurrentHashMap<>();
+    /** Players that receive team packets, by their unique id. */
+    private static Map<UUID, Player> viewers = new ConcurrentHashMap<>();
+    /** Names of online players by their unique id. */
+    private static Map<UUID, String> playerNames = new ConcurrentHashMap<>();
+    /** Online players by their name in lower case. */
+    private static Map<String, Player> onlinePlayers = new ConcurrentHashMap<>();
+    /** Registry of every team by the prefix and suffix it displays. */
+    private static Map<TeamInfo.Key, TeamInfo> tags = new HashMap<>();
+    /** Registry of every team by its scoreboard name. */
+    private static Map<String, TeamInfo> names = new HashMap<>();
+    /** Nametags particular viewers see in place of the global ones. */
+    private static ViewerOverlay overlay = new ViewerOverlay();
+    /**
+     * What viewers see of players whose changes were not sent to them because
+     * they were out of interest, until they are synced again. Holds at most
+     * one entry per viewer and player, and at most {@link #missedLimit} per
+     * viewer.
+     */
+    private static ViewerOverlay stale = new ViewerOverlay();
+    /** Which viewers are sent changes to which players. */
+    private static InterestMode interest = InterestMode.GLOBAL;
+    private static double radiusSquared;
+    /**
+     * The number of players a viewer may have missed changes to. Once a
+     * change takes a viewer past it, they are sent every change they missed,
+     * whether the players are of interest or not.
+     */
+    private static int missedLimit = DEFAULT_MISSED_LIMIT;
+    /** Viewers taken past {@link #missedLimit} by the current change. */
+    private static Set<UUID> overgrown = new HashSet<>();
+    /**
+     * Where online players are, looked up once per change instead of once
+     * for every viewer they are compared with. {@code null} outside of a
+     * change.
+     */
+    private static Map<UUID, Position> positions;
+    /** Prebuilt packets creating each team with its members, sent on join. */
+    private static Map<TeamInfo, PacketHandler> snapshots = new HashMap<>();
+    /** Allocates the numbers appended to {@link #TEAM_NAME_PREFIX}. */
+    private static TeamIdAllocator ids = new TeamIdAllocator();
+    /** Tags whose teams are kept for as long as the plugin runs. */
+    private static Set<TeamInfo.Key> pinned = new HashSet<>();
+    /** Counts changes to the teams, to tell whether they need to be saved. */
+    private static int revision;
+    /** The revision of the teams that was saved last. */
+    private static int savedRevision;
+    /** Scheduled removals of teams whose last reference was released. */
+    private static Map<TeamInfo, Integer> evictions = new HashMap<>();
+    /** Ticks an unused team is kept around before it is removed. */
+    private static long evictionDelay;
+    /** Nametag changes made during the current tick, in the order they were made. */
+    private static List<Mutation> queue = new ArrayList<>();
+    private static boolean flushScheduled;
+    /** Guards the queue, which {@link NametagAPI} may be called from any thread. */
+    private static final Object queueLock = new Object();
+    private static final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+
+    };
+    /** Held while changing any team state other than the change queue. */
+    private static final Object stateLock = new Object();
+    /**
+     * Held for a whole save, so a save that copied the teams earlier cannot
+     * finish writing after a later one.
+     */
+    private static final Object saveLock = new Object();
     private static Plugin plugin;
 
     /**
      * Initializes this class and loads current teams that are manipulated by
      * this plugin.
+     * 
+     * <br>
+     * <br>
+     * 
+     * The given teams are restored as they were saved, without firing any
+     * events, and sent to every player that is already online. Which teams
+     * are pinned is only taken from the given tags, so restored teams that
+     * are no longer pinned and have no members are removed.
+     * 
+     * @param plugin The plugin tasks are scheduled for, or {@code null} to
+     *            flush changes and remove unused teams straight away.
+     * @param restored The teams saved by {@link #save(NametagStore)}.
+     * @param pins The tags whose teams are pinned, see
+     *            {@link #pin(String, String)}.
+     */
+    static void load(Plugin plugin, List<NametagStore.Team> restored, Collection<Nametag> pins) {
+        NametagManager.plugin = plugin;
+
+        synchronized (stateLock) {
+            for (NametagStore.Team saved : restored) {
+                restore(saved);
+            }
+
+            for (TeamInfo teamInfo : getTeams()) {
+                if (!ids.reserve(teamInfo.getId())) {
+                    plugin.getLogger().log(Level.FINEST, "Team number already in use: " + teamInfo.getName());
+                }
+            }
+
+            savedRevision = revision;
+
+            for (Nametag pin : pins) {
+                TeamInfo.Key key = resolve(null, pin.getPrefix(), pin.getSuffix(), NametagChangeType.HARD);
+
+                if (pinned.add(key)) {
+                    retain(getTeamInfo(key));
+                    revision++;
+                }
+            }
+
+            for (TeamInfo team : getTeams()) {
+                if (team.getReferences() <= 0) {
+                    removeTeam(team);
+                }
+            }
+
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                sendTeamsToPlayer(player);
+            }
+        }
+    }
+
+    /**
+     * Saves every team and its members to the given store if anything changed
+     * since the last save. The teams are copied while holding the state lock
+     * and written after releasing it, so this can be called from any thread.
+     * Saves run one at a time, so the file always ends up holding the teams
+     * copied last.
+     * 
+     * @param store The store to save to.
+     * @return {@code true} if the teams were saved, or {@code false} if
+     *         nothing changed.
+     * @throws IOException If the teams could not be written.
+     */
+    static boolean save(NametagStore store) throws IOException {
+        synchronized (saveLock) {
+            List<NametagStore.Team> saved;
+            int saving;
+
+            synchronized (stateLock) {
+                if (revision == savedRevision) {
+                    return false;
+                }
+
+                saving = revision;
+                saved = new ArrayList<>(teams.size());
+
+                for (Entry<TeamInfo, Map<String, String>> entry : teams.entrySet()) {
+                    TeamInfo team = entry.getKey();
+                    Map<String, String> members = entry.getValue();
+                    boolean pin = pinned.contains(team.getKey()) && tags.get(team.getKey()) == team;
+
+                    // Teams only kept around until their eviction are not worth restoring.
+                    if (members.isEmpty() && !pin) {
+                        continue;
+                    }
+
+                    TeamInfo.Key key = team.getKey();
+                    saved.add(new NametagStore.Team(team.getId(), key.getPrefix(), key.getSuffix(), pin, members.values().toArray(new String[members.size()])));
+                }
+            }
+
+            store.write(saved);
+
+            synchronized (stateLock) {
+                savedRevision = saving;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Registers a saved team with its members. No packets are sent, as
+     * nobody is online yet when the plugin is enabled. Whether the team was
+     * pinned is ignored, as pins are set up again from the configuration.
+     * 
+     * @param saved The saved team.
+     */
+    private static void restore(NametagStore.Team saved) {
+        TeamInfo.Key key = new TeamInfo.Key(saved.getPrefix(), saved.getSuffix());
+        String name = TEAM_NAME_PREFIX + saved.getId();
+
+        if (names.containsKey(name) || tags.containsKey(key)) {
+            plugin.getLogger().log(Level.WARNING, "Skipping duplicate saved team: " + name);
+            return;
+        }
+
+        TeamInfo team = new TeamInfo(saved.getId(), name, saved.getPrefix(), saved.getSuffix());
+        Map<String, String> members = new LinkedHashMap<>();
+        teams.put(team, members);
+        tags.put(key, team);
+        names.put(name, team);
+
+        for (String member : saved.getMembers()) {
+            String id = key(member);
+
+            if (!players.containsKey(id)) {
+                members.put(id, member);
+                players.put(id, team);
+                team.retain();
+            }
+        }
+    }
+
+    static boolean isManaged(String player) {
+        return players.containsKey(key(player));
+    }
+
+    /**
+     * Updates a player's prefix and suffix in the scoreboard and above their
+     * head.
+     * 
+     * <br>
+     * <br>
+     * 
+     * If either the prefix or suffix is null or empty, it will be removed from
+     * the player's nametag.
+     * 
+     * @param player The specified player.
+     * @param prefix The prefix to set for the given player.
+     * @param suffix The suffix to set for the given player.
+     */
+    static void overlap(String player, String prefix, String suffix) {
+        TeamInfo.Key key = resolve(null, prefix, suffix, NametagChangeType.HARD);
+
+        apply(Collections.singletonMap(player, key));
+    }
+
+    /**
+     * Clears a player's nametag.
+     * 
+     * @param player The specified player.
+     */
+    static void clear(String player) {
+        apply(Collections.singletonMap(player, (TeamInfo.Key) null));
+    }
+
+    /**
+     * Queues a change to a player's nametag. Queued changes are applied
+     * together at the end of the tick, see {@link #flush()}.
+     * 
+     * @param player The specified player.
+     * @param prefix The prefix to set for the given player.
+     * @param suffix The suffix to set for the given player.
+     * @param type Whether empty values keep or remove the current ones.
+     */
+    static void enqueue(String player, String prefix, String suffix, NametagChangeType type) {
+        enqueue(Collections.singletonList(new Mutation(player, prefix, suffix, type)));
+    }
+
+    /**
+     * Queues changes to the nametags of many players. All of them are applied
+     * in the same flush, so players moving into the same team share a packet.
+     * 
+     * @param nametags The prefix and suffix to set for each player.
+     * @param type Whether empty values keep or remove the current ones.
+     */
+    static void enqueueAll(Map<String, Nametag> nametags, NametagChangeType type) {
+        List<Mutation> mutations = new ArrayList<>(nametags.size());
+
+        for (Entry<String, Nametag> entry : nametags.entrySet()) {
+            Nametag nametag = entry.getValue();
+            mutations.add(new Mutation(entry.getKey(), nametag.getPrefix(), nametag.getSuffix(), type));
+        }
+
+        enqueue(mutations);
+    }
+
+    /**
+     * Queues clearing a player's nametag. Queued changes are applied together
+     * at the end of the tick, see {@link #flush()}.
+     * 
+     * @param player The specified player.
+     */
+    static void enqueueClear(String player) {
+        enqueue(Collections.singletonList(new Mutation(player, null, null, null)));
+    }
+
+    /**
+     * Queues clearing the nametags of many players, applied in the same flush.
+     * 
+     * @param players The players to clear.
+     */
+    static void enqueueClearAll(Collection<String> players) {
+        List<Mutation> mutations = new ArrayList<>(players.size());
+
+        for (String player : players) {
+            mutations.add(new Mutation(player, null, null, null));
+        }
+
+        enqueue(mutations);
+    }
+
+    /**
+     * Queues changes published by another server. They are applied with the
+     * next flush like any other change, but do not fire events and are not
+     * published again.
+     * 
+     * @param changes The new prefix and suffix of each player, or
+     *            {@code null} for players whose nametag is cleared.
+     */
+    static void enqueueRemote(Map<String, TeamInfo.Key> changes) {
+        List<Mutation> mutations = new ArrayList<>(changes.size());
+
+        for (Entry<String, TeamInfo.Key> change : changes.entrySet()) {
+            TeamInfo.Key key = change.getValue();
+
+            if (key != null) {
+                mutations.add(new Mutation(change.getKey(), key.getPrefix(), key.getSuffix(), NametagChangeType.HARD, null, true));
+            } else {
+                mutations.add(new Mutation(change.getKey(), null, null, null, null, true));
+            }
+        }
+
+        enqueue(mutations);
+    }
+
+    /**
+     * Changes a player's nametag as soon as possible. On the main thread the
+     * change, along with everything queued before it, is applied before this
+     * method returns. From any other thread it is applied at the end of the
+     * current tick.
+     * 
+     * @param player The specified player.
+     * @param prefix The prefix to set for the given player.
+     * @param suffix The suffix to set for the given player.
+     * @param type Whether empty values keep or remove the current ones, or
+     *            {@code null} to clear the nametag.
+     * @return A future completed with {@code true} once the change is applied,
+     *         or {@code false} if a listener cancelled it.
+     */
+    static CompletableFuture<Boolean> submit(String player, String prefix, String suffix, NametagChangeType type) {
+        Mutation mutation = new Mutation(player, prefix, suffix, type, new CompletableFuture<Boolean>());
+
+        if (plugin != null && Bukkit.isPrimaryThread()) {
+            synchronized (queueLock) {
+                queue.add(mutation);
+            }
+
+            flush();
+        } else {
+            enqueue(Collections.singletonList(mutation));
+        }
+
+        return mutation.result;
+    }
+
+    /**
+     * Applies every queued nametag change, firing a
+     * {@link NametagChangeEvent} for each of them. Changes made to the same
+     * player are combined so only their final nametag is sent out, and all
+     * players moving into or out of the same team share a single packet.
+     * 
+     * <br>
+     * <br>
+     * 
+     * A single {@link NametagBatchChangeEvent} is then fired with the final
+     * nametags of the players changed on this server. Neither event is
+     * constructed while it has no listeners, and changes received from other
+     * servers fire neither.
+     * 
+     * <br>
+     * <br>
+     * 
+     * The final nametags of players changed on this server are then published
+     * to the other servers, if replication is enabled.
+     */
+    static void flush() {
+        long start = System.nanoTime();
+        List<Mutation> batch;
+
+        synchronized (queueLock) {
+            flushScheduled = false;
+
+            if (queue.isEmpty()) {
+                return;
+            }
+
+            batch = queue;
+            queue = new ArrayList<>();
+        }
+
+        Map<String, TeamInfo.Key> changes = new LinkedHashMap<>();
+        Map<String, String> spellings = new HashMap<>();
+        Set<String> published = new LinkedHashSet<>();
+        Map<String, TeamInfo.Key> received = new HashMap<>();
+        boolean[] applied = new boolean[batch.size()];
+        boolean listening = hasListeners(NametagChangeEvent.getHandlerList());
+
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Mutation mutation = batch.get(i);
+                String player = mutation.player;
+                String id = key(player);
+                TeamInfo.Key current = changes.containsKey(id) ? changes.get(id) : getKey(player);
+
+                if (!spellings.containsKey(id)) {
+                    spellings.put(id, player);
+                }
+
+                if (mutation.remote) {
+                    changes.put(id, mutation.type != null ? resolve(null, mutation.prefix, mutation.suffix, mutation.type) : null);
+                    received.put(id, changes.get(id));
+                    published.remove(id);
+                    applied[i] = true;
+                    continue;
+                }
+
+                if (mutation.type == null) {
+                    changes.put(id, null);
+                    published.add(id);
+                    applied[i] = true;
+                    continue;
+                }
+
+                if (!listening) {
+                    changes.put(id, resolve(current, mutation.prefix, mutation.suffix, mutation.type));
+                    published.add(id);
+                    applied[i] = true;
+                    continue;
+                }
+
+                String prefix = current != null ? current.getPrefix() : "";
+                String suffix = current != null ? current.getSuffix() : "";
+                NametagChangeEvent event = new NametagChangeEvent(player, prefix, suffix, mutation.prefix, mutation.suffix, mutation.type, NametagChangeReason.CUSTOM);
+                Bukkit.getPluginManager().callEvent(event);
+
+                if (!event.isCancelled()) {
+                    changes.put(id, resolve(current, event.getPrefix(), event.getSuffix(), mutation.type));
+                    published.add(id);
+                    applied[i] = true;
+                }
+            }
+
+            if (!published.isEmpty() && hasListeners(NametagBatchChangeEvent.getHandlerList())) {
+                Set<String> vetoed = callBatchEvent(changes, received, spellings, published);
+
+                if (!vetoed.isEmpty()) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!batch.get(i).remote && vetoed.contains(key(batch.get(i).player))) {
+                            applied[i] = false;
+                        }
+                    }
+                }
+            }
+
+            Map<String, TeamInfo.Key> named = new LinkedHashMap<>();
+
+            for (Entry<String, TeamInfo.Key> change : changes.entrySet()) {
+                named.put(spellings.get(change.getKey()), change.getValue());
+            }
+
+            apply(named);
+
+            if (!published.isEmpty() && NametagReplicator.isEnabled()) {
+                Map<String, TeamInfo.Key> local = new LinkedHashMap<>();
+
+                for (String id : published) {
+                    local.put(spellings.get(id), changes.get(id));
+                }
+
+                NametagReplicator.publish(local);
+            }
+        } catch (RuntimeException exc) {
+            for (Mutation mutation : batch) {
+                if (mutation.result != null) {
+                    mutation.result.completeExceptionally(exc);
+                }
+            }
+
+            throw exc;
+        }
+
+        NametagMetrics.flush.record(System.nanoTime() - start);
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).result != null) {
+                batch.get(i).result.complete(applied[i]);
+            }
+        }
+    }
+
+    /**
+     * Retrieves a player's prefix
+     * 
+     * @param player The specified player.
+     * @return The player's prefix.
+     */
+    static String getPrefix(String player) {
+        TeamInfo team = players.get(key(player));
+        return team != null ? team.getPrefix() : "";
+    }
+
+    /**
+     * Retrieves a player's suffix
+     * 
+     * @param player The specified player.
+     * @return The player's suffix.
+     */
+    static String getSuffix(String player) {
+        TeamInfo team = players.get(key(player));
+        return team != null ? team.getSuffix() : "";
+    }
+
+    /**
+     * Retrieves the player's entire name with both the prefix and suffix.
+     * 
+     * @param player The specified player.
+     * @return The entire nametag.
+     */
+    static String getFormattedName(String player) {
+        TeamInfo.Key key = getKey(player);
+        return key != null ? key.getPrefix() + player + key.getSuffix() : player;
+    }
+
+    /**
+     * Retrieves the prefix the given viewer sees for a player.
+     * 
+     * @param viewer The viewer's unique id.
+     * @param player The specified player.
+     * @return The player's prefix as the viewer sees it.
+     */
+    static String getPrefix(UUID viewer, String player) {
+        ViewerOverlay.Tag tag = overlay.get(viewer, key(player));
+        return tag != null ? tag.getTeam().getPrefix() : getPrefix(player);
+    }
+
+    /**
+     * Retrieves the suffix the given viewer sees for a player.
+     * 
+     * @param viewer The viewer's unique id.
+     * @param player The specified player.
+     * @return The player's suffix as the viewer sees it.
+     */
+    static String getSuffix(UUID viewer, String player) {
+        ViewerOverlay.Tag tag = overlay.get(viewer, key(player));
+        return tag != null ? tag.getTeam().getSuffix() : getSuffix(player);
+    }
+
+    /**
+     * Shows the given viewer a different prefix and suffix for a player than
+     * everyone else sees. Only the viewer is sent packets, moving the player
+     * out of the team it saw them in and into the one for the new tag.
+     * 
+     * <br>
+     * <br>
+     * 
+     * Global changes to the player's nametag are not sent to the viewer until
+     * the override is removed again with {@link #resetFor(Player, String)}.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player the tag is shown for.
+     * @param prefix The prefix to show.
+     * @param suffix The suffix to show.
+     * @return {@code false} if the viewer is not online, otherwise
+     *         {@code true}.
+     */
+    static boolean updateFor(Player viewer, String player, String prefix, String suffix) {
+        synchronized (stateLock) {
+            if (!viewers.containsKey(viewer.getUniqueId())) {
+                return false;
+            }
+
+            String id = key(player);
+            TeamInfo to = getTeamInfo(resolve(null, prefix, suffix, NametagChangeType.HARD));
+            ViewerOverlay.Tag from = overlay.get(viewer.getUniqueId(), id);
+
+            if (from != null && from.getTeam() == to) {
+                return true;
+            }
+
+            ViewerOverlay.Tag shown = getShown(viewer.getUniqueId(), id);
+            ViewerOverlay.Tag tag = new ViewerOverlay.Tag(to, getPacketName(player));
+            retain(to);
+            overlay.put(viewer.getUniqueId(), id, tag);
+            stale.remove(viewer.getUniqueId(), id);
+            sendPacketsMoveFor(viewer, shown.getTeam(), shown.getName(), to, tag.getName());
+
+            if (from != null) {
+                release(from.getTeam());
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Makes the given viewer see a player's global nametag again.
+     * 
+     * @param viewer The player that sees the tag.
+     * @param player The player the tag is shown for.
+     */
+    static void resetFor(Player viewer, String player) {
+        synchronized (stateLock) {
+            String id = key(player);
+            ViewerOverlay.Tag shown = getShown(viewer.getUniqueId(), id);
+            ViewerOverlay.Tag from = overlay.remove(viewer.getUniqueId(), id);
+
+            if (from == null) {
+                return;
+            }
+
+            stale.remove(viewer.getUniqueId(), id);
+
+            if (viewers.containsKey(viewer.getUniqueId())) {
+                ViewerOverlay.Tag to = getShown(viewer.getUniqueId(), id);
+                sendPacketsMoveFor(viewer, shown.getTeam(), shown.getName(), to.getTeam(), to.getName());
+            }
+
+            release(from.getTeam());
+        }
+    }
+
+    /**
+     * Sends the given viewer the changes they missed to players that are now
+     * of interest to them, and sends other viewers the changes they missed to
+     * this player. This should be called when players change worlds.
+     * 
+     * @param player The player that moved.
+     */
+    static void refreshInterest(Player player) {
+        synchronized (stateLock) {
+            if (stale.isEmpty()) {
+                return;
+            }
+
+            positions = new HashMap<>();
+
+            try {
+                for (String id : stale.tagsOf(player.getUniqueId()).keySet()) {
+                    resync(player, id);
+                }
+
+                String id = key(player.getName());
+
+                for (UUID viewer : new ArrayList<>(stale.viewersOf(id))) {
+                    Player other = viewers.get(viewer);
+
+                    if (other != null) {
+                        resync(other, id);
+                    }
+                }
+            } finally {
+                positions = null;
+            }
+        }
+    }
+
+    /**
+     * Sends every viewer the changes they missed to players that are now of
+     * interest to them. In {@link InterestMode#RADIUS} mode this should be
+     * called periodically, as players move in and out of range.
+     */
+    static void refreshInterest() {
+        synchronized (stateLock) {
+            if (stale.isEmpty()) {
+                return;
+            }
+
+            positions = new HashMap<>();
+
+            try {
+                for (UUID viewer : stale.getViewers()) {
+                    Player player = viewers.get(viewer);
+
+                    if (player == null) {
+                        continue;
+                    }
+
+                    for (String id : stale.tagsOf(viewer).keySet()) {
+                        resync(player, id);
+                    }
+                }
+            } finally {
+                positions = null;
+            }
+        }
+    }
+
+    /**
+     * Sets which viewers are sent changes to which players.
+     * 
+     * @param mode The interest mode.
+     * @param radius The distance within which players are of interest in
+     *            {@link InterestMode#RADIUS} mode.
+     */
+    static void setInterest(InterestMode mode, double radius) {
+        interest = mode;
+        radiusSquared = radius * radius;
+    }
+
+    /**
+     * Sets how many players a viewer may miss changes to while they are out
+     * of interest. Every missed change is remembered until the viewer catches
+     * up on it, so this bounds the memory that takes per viewer.
+     * 
+     * @param limit The number of players.
+     */
+    static void setMissedLimit(int limit) {
+        missedLimit = Math.max(1, limit);
+    }
+
+    /**
+     * Returns the number of registered teams. Read without locking, so it may
+     * be slightly out of date when called off the main thread.
+     * 
+     * @return The number of teams.
+     */
+    static int getTeamCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns the number of players with a custom nametag.
+     * 
+     * @return The number of team members.
+     */
+    static int getMemberCount() {
+        return players.size();
+    }
+
+    /**
+     * Sends the current team setup and their players to the given player. This
+     * should be called when players join the server.
+     * 
+     * <br>
+     * <br>
+     * 
+     * Each team is sent as a single packet that creates it together with its
+     * members. These packets are kept until the team changes, so they are
+     * only built once no matter how many players join.
+     * 
+     * <br>
+     * <br>
+     * 
+     * The player receives every team change made after this call.
+     * 
+     * @param player The player to send the packets to.
+     */
+    static void sendTeamsToPlayer(Player player) {
+        long start = System.nanoTime();
+
+        synchronized (stateLock) {
+            List<PacketHandler> packets = new ArrayList<>(teams.size());
+
+            for (Entry<TeamInfo, Map<String, String>> entry : teams.entrySet()) {
+                TeamInfo team = entry.getKey();
+                PacketHandler packet = snapshots.get(team);
+
+                if (packet == null) {
+                    TeamInfo.Key key = team.getKey();
+                    packet = new PacketHandler(team.getName(), key.getPrefix(), key.getSuffix(), entry.getValue().values(), 0);
+                    snapshots.put(team, packet);
+                }
+
+                packets.add(packet);
+            }
+
+            addViewer(player);
+            PacketDispatcher.send(packets, player);
+        }
+
+        NametagMetrics.join.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Stops sending team packets to the given player. This should be called
+     * when players leave the server.
+     * 
+     * @param player The player that left.
+     */
+    static void removeViewer(Player player) {
+        synchronized (stateLock) {
+            viewers.remove(player.getUniqueId());
+            playerNames.remove(player.getUniqueId());
+            onlinePlayers.remove(key(player.getName()));
+
+            for (ViewerOverlay.Tag tag : overlay.removeViewer(player.getUniqueId()).values()) {
+                release(tag.getTeam());
+            }
+
+            stale.removeViewer(player.getUniqueId());
+            String id = key(player.getName());
+
+            // Players that are not online are of interest to everyone.
+            for (UUID viewer : new ArrayList<>(stale.viewersOf(id))) {
+                Player other = viewers.get(viewer);
+
+                if (other != null) {
+                    resync(other, id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the online player with the given unique id.
+     * 
+     * @param id The player's unique id.
+     * @return The player's name, or {@code null} if they are not online.
      */
-    static void load() {
-        plugin = NametagPlugin.getInstance();
+    static String getName(UUID id) {
+        return playerNames.get(id);
+    }
 
-        for (TeamInfo teamInfo : getTeams()) {
-            int entry = -1;
+    private static void addViewer(Player player) {
+        viewers.put(player.getUniqueId(), player);
+        playerNames.put(player.getUniqueId(), player.getName());
+        onlinePlayers.put(key(player.getName()), player);
+    }
+
+    /**
+     * Clears out all teams and removes them for all the players. Called when
+     * the plugin is disabled.
+     */
+    public static void reset() {
+        synchronized (queueLock) {
+            queue.clear();
+            flushScheduled = false;
+        }
+
+        synchronized (stateLock) {
+            overlay.clear();
+            stale.clear();
+            pinned.clear();
+
+            for (TeamInfo team : getTeams()) {
+                removeTeam(team);
+            }
+        }
+    }
+
+    /**
+     * Creates the team for the given prefix and suffix now and keeps it until
+     * it is unpinned, even while nobody uses it. Players given this tag later
+     * only need to be added to the team, and joining players receive it as
+     * part of the cached team snapshot.
+     * 
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     */
+    static void pin(String prefix, String suffix) {
+        TeamInfo.Key key = resolve(null, prefix, suffix, NametagChangeType.HARD);
+
+        synchronized (stateLock) {
+            if (pinned.add(key)) {
+                retain(getTeamInfo(key));
+                revision++;
+            }
+        }
+    }
+
+    /**
+     * Lets the team for the given prefix and suffix be removed again once
+     * nobody uses it.
+     * 
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     */
+    static void unpin(String prefix, String suffix) {
+        TeamInfo.Key key = resolve(null, prefix, suffix, NametagChangeType.HARD);
+
+        synchronized (stateLock) {
+            TeamInfo team = tags.get(key);
+
+            if (pinned.remove(key) && team != null) {
+                revision++;
+                release(team);
+            }
+        }
+    }
+
+    /**
+     * Sets how long a team is kept after its last member leaves. Keeping
+     * unused teams around for a short while means a tag that is removed and
+     * set again does not destroy and recreate its team for every player.
+     * 
+     * @param ticks The delay in server ticks, or 0 to remove unused teams
+     *            immediately.
+     */
+    static void setEvictionDelay(long ticks) {
+        evictionDelay = Math.max(0, ticks);
+    }
+
+    /**
+     * Declares a new team in the scoreboard.dat of the given main world.
+     * 
+     * @param id The team number.
+     * @param prefix The team's prefix.
+     * @param suffix The team's suffix.
+     * @return The created TeamInfo.
+     */
+    private static TeamInfo declareTeam(int id, String prefix, String suffix) {
+        String name = TEAM_NAME_PREFIX + id;
+        TeamInfo existing = getTeam(name);
+
+        if (existing != null) {
+            removeTeam(existing);
+            ids.reserve(id);
+        }
+
+        TeamInfo team = new TeamInfo(id, name, prefix, suffix);
+
+        register(team);
+
+        return team;
+    }
+
+    /**
+     * Gets the ScoreboardTeam for the given prefix and suffix, and if none
+     * matches, creates a new team with the provided info.
+     * 
+     * @param key The team's prefix and suffix.
+     * @return A team with the corresponding prefix/suffix.
+     */
+    private static TeamInfo getTeamInfo(TeamInfo.Key key) {
+        TeamInfo team = tags.get(key);
+
+        if (team != null) {
+            return team;
+        }
+
+        return declareTeam(ids.allocate(), key.getPrefix(), key.getSuffix());
+    }
+
+    /**
+     * Works out the prefix and suffix a player ends up with after a change.
+     * 
+     * @param current The player's current prefix and suffix, or {@code null}
+     *            if they have none.
+     * @param prefix The prefix to set.
+     * @param suffix The suffix to set.
+     * @param type {@link NametagChangeType#SOFT} to keep the current values
+     *            in place of null or empty ones, or
+     *            {@link NametagChangeType#HARD} to remove them.
+     * @return The resulting prefix and suffix.
+     */
+    private static TeamInfo.Key resolve(TeamInfo.Key current, String prefix, String suffix, NametagChangeType type) {
+        if (type == NametagChangeType.SOFT) {
+            if (prefix == null || prefix.isEmpty()) {
+                prefix = current != null ? current.getPrefix() : "";
+            }
+
+            if (suffix == null || suffix.isEmpty()) {
+                suffix = current != null ? current.getSuffix() : "";
+            }
+        }
+
+        return new TeamInfo.Key(prefix != null ? prefix : "", suffix != null ? suffix : "");
+    }
+
+    /**
+     * Fires a {@link NametagBatchChangeEvent} for the given local changes and
+     * applies what its listeners did to them. A cancelled change is dropped,
+     * leaving the player with the nametag another server set earlier in the
+     * same batch, if any.
+     * 
+     * @param changes The final nametag of each changed player, by lower-case
+     *            name.
+     * @param received The last nametag received from another server in this
+     *            batch, by lower-case name.
+     * @param spellings The name each player was changed with, by lower-case
+     *            name.
+     * @param published The lower-case names of the players changed on this
+     *            server.
+     * @return The lower-case names of the players whose change was cancelled.
+     */
+    private static Set<String> callBatchEvent(Map<String, TeamInfo.Key> changes, Map<String, TeamInfo.Key> received, Map<String, String> spellings,
+                    Set<String> published) {
+        List<NametagBatchChangeEvent.Change> list = new ArrayList<>(published.size());
+
+        for (String id : published) {
+            TeamInfo.Key current = received.containsKey(id) ? received.get(id) : getKey(spellings.get(id));
+            TeamInfo.Key next = changes.get(id);
+            list.add(new NametagBatchChangeEvent.Change(spellings.get(id),
+                            current != null ? current.getPrefix() : "", current != null ? current.getSuffix() : "",
+                            next != null ? next.getPrefix() : null, next != null ? next.getSuffix() : null));
+        }
+
+        NametagBatchChangeEvent event = new NametagBatchChangeEvent(list);
+        Bukkit.getPluginManager().callEvent(event);
+
+        Set<String> vetoed = new HashSet<>();
+
+        for (NametagBatchChangeEvent.Change change : list) {
+            String id = key(change.getPlayerName());
+
+            if (event.isCancelled() || change.isCancelled()) {
+                if (received.containsKey(id)) {
+                    changes.put(id, received.get(id));
+                } else {
+                    changes.remove(id);
+                }
+
+                published.remove(id);
+                vetoed.add(id);
+            } else {
+                changes.put(id, change.isReset() ? null : resolve(null, change.getPrefix(), change.getSuffix(), NametagChangeType.HARD));
+            }
+        }
+
+        return vetoed;
+    }
+
+    private static boolean hasListeners(HandlerList handlers) {
+        return handlers.getRegisteredListeners().length > 0;
+    }
+
+    /**
+     * Moves every given player into the team for their new prefix and suffix,
+     * or out of their team if it is {@code null}. Players leaving or joining
+     * the same team are sent in one packet, and teams left without members
+     * are released afterwards.
+     * 
+     * @param changes The new prefix and suffix of each player.
+     */
+    private static void apply(Map<String, TeamInfo.Key> changes) {
+        synchronized (stateLock) {
+            if (interest != InterestMode.GLOBAL) {
+                positions = new HashMap<>();
+            }
 
             try {
-                entry = Integer.parseInt(teamInfo.getName());
-            } catch (Exception exc) {
-                plugin.getLogger().log(Level.FINEST, "Failed to parse integer: " + teamInfo.getName());
+                move(changes);
+
+                for (UUID id : overgrown) {
+                    Player viewer = viewers.get(id);
+
+                    if (viewer != null) {
+                        for (String player : stale.tagsOf(id).keySet()) {
+                            sync(viewer, player);
+                        }
+                    }
+                }
+            } finally {
+                positions = null;
+                overgrown.clear();
+            }
+        }
+    }
+
+    private static void move(Map<String, TeamInfo.Key> changes) {
+        Map<TeamInfo, List<String>> left = new LinkedHashMap<>();
+        Map<TeamInfo, List<String>> joined = new LinkedHashMap<>();
+
+        updateTeams(changes);
+
+        for (Entry<String, TeamInfo.Key> change : changes.entrySet()) {
+            String player = change.getKey();
+            String id = key(player);
+            TeamInfo from = players.get(id);
+            TeamInfo to = change.getValue() != null ? getTeamInfo(change.getValue()) : null;
+
+            if (from == to) {
+                continue;
+            }
+
+            if (from != null) {
+                group(left, from, removeFromTeam(from, id));
             }
 
-            if (entry != -1) {
-                list.add(entry);
+            if (to != null) {
+                String name = getPacketName(player);
+                addToTeam(to, id, name);
+                group(joined, to, name);
             }
         }
-    }
 
-    static boolean isManaged(String player) {
-        for (Entry<TeamInfo, List<String>> entry : teams.entrySet()) {
-            for (String listedPlayer : entry.getValue()) {
-                if (listedPlayer.equalsIgnoreCase(player)) {
-                    return true;
-                }
+        for (Entry<TeamInfo, List<String>> leave : left.entrySet()) {
+            TeamInfo team = leave.getKey();
+
+            // A team removed right away takes its members with it for every player.
+            if (!evictsImmediately() || team.getReferences() > leave.getValue().size()) {
+                sendPacketsRemoveFromTeam(team, leave.getValue());
             }
         }
 
-        return false;
+        for (Entry<TeamInfo, List<String>> join : joined.entrySet()) {
+            sendPacketsAddToTeam(join.getKey(), join.getValue());
+        }
+
+        for (Entry<TeamInfo, List<String>> leave : left.entrySet()) {
+            for (int i = 0; i < leave.getValue().size(); i++) {
+                release(leave.getKey());
+            }
+        }
     }
 
     /**
-     * Updates a player's prefix and suffix in the scoreboard and above their
-     * head.
+     * Updates the prefix and suffix of every team whose members all change to
+     * the same new tag, when no other team displays that tag yet. A single
+     * update packet then replaces removing the members, creating a team for
+     * the new tag and adding them to it again.
      * 
      * <br>
      * <br>
      * 
-     * If either the prefix or suffix is null or empty, it will be replaced with
-     * the current prefix/suffix
+     * Teams that anything else holds a reference to, such as a viewer's own
+     * tag, are left alone. So are teams a viewer still sees a former member
+     * in because they were out of interest when the member left, as the
+     * update would change that member's tag for them too.
      * 
-     * @param player The specified player.
-     * @param prefix The prefix to set for the given player.
-     * @param suffix The suffix to set for the given player.
+     * @param changes The new prefix and suffix of each player.
      */
-    static void update(String player, String prefix, String suffix) {
-        if (prefix == null || prefix.isEmpty()) {
-            prefix = getPrefix(player);
+    private static void updateTeams(Map<String, TeamInfo.Key> changes) {
+        Map<TeamInfo, TeamInfo.Key> moves = new HashMap<>();
+        Map<TeamInfo, Integer> counts = new HashMap<>();
+        Set<TeamInfo> mixed = new HashSet<>();
 
-        }
+        for (Entry<String, TeamInfo.Key> change : changes.entrySet()) {
+            TeamInfo from = players.get(key(change.getKey()));
+            TeamInfo.Key to = change.getValue();
+
+            if (from == null || mixed.contains(from)) {
+                continue;
+            }
 
-        if (suffix == null || suffix.isEmpty()) {
-            suffix = getSuffix(player);
+            if (to == null || (moves.containsKey(from) && !to.equals(moves.get(from)))) {
+                mixed.add(from);
+                continue;
+            }
 
+            Integer count = counts.get(from);
+            moves.put(from, to);
+            counts.put(from, count != null ? count + 1 : 1);
         }
 
-        TeamInfo teamInfo = getTeamInfo(prefix, suffix);
+        for (Entry<TeamInfo, TeamInfo.Key> move : moves.entrySet()) {
+            TeamInfo team = move.getKey();
+            TeamInfo.Key to = move.getValue();
+            int count = counts.get(team);
+
+            if (mixed.contains(team) || to.equals(team.getKey()) || tags.containsKey(to) || stale.shows(team)) {
+                continue;
+            }
 
-        addToTeam(teamInfo, player);
+            if (teams.get(team).size() == count && team.getReferences() == count) {
+                updateTeam(team, to);
+            }
+        }
     }
 
     /**
-     * Updates a player's prefix and suffix in the scoreboard and above their
-     * head.
+     * Changes the prefix and suffix of a team in place for every player.
      * 
-     * <br>
-     * <br>
-     * 
-     * If either the prefix or suffix is null or empty, it will be removed from
-     * the player's nametag.
-     * 
-     * @param player The specified player.
-     * @param prefix The prefix to set for the given player.
-     * @param suffix The suffix to set for the given player.
+     * @param team The team to update.
+     * @param key The new prefix and suffix.
      */
-    static void overlap(String player, String prefix, String suffix) {
-        if (prefix == null) {
-            prefix = "";
+    private static void updateTeam(TeamInfo team, TeamInfo.Key key) {
+        if (tags.get(team.getKey()) == team) {
+            tags.remove(team.getKey());
         }
 
-        if (suffix == null) {
-            suffix = "";
+        team.setKey(key);
+        tags.put(key, team);
+        NametagMetrics.teamUpdated();
+        changed(team);
+        sendPacketsUpdateTeam(team);
+    }
+
+    private static <K, V> void group(Map<K, List<V>> groups, K key, V value) {
+        List<V> values = groups.get(key);
+
+        if (values == null) {
+            values = new ArrayList<>();
+            groups.put(key, values);
         }
 
-        TeamInfo t = getTeamInfo(prefix, suffix);
+        values.add(value);
+    }
+
+    private static void enqueue(List<Mutation> mutations) {
+        synchronized (queueLock) {
+            queue.addAll(mutations);
+
+            if (flushScheduled) {
+                return;
+            }
+
+            flushScheduled = true;
+        }
 
-        addToTeam(t, player);
+        if (plugin == null || Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, flushTask) == -1) {
+            flush();
+        }
     }
 
     /**
-     * Clears a player's nametag.
+     * Adds a reference to the given team, cancelling its removal if one was
+     * scheduled.
      * 
-     * @param player The specified player.
+     * @param team The team to retain.
      */
-    static void clear(String player) {
-        removeFromTeam(player);
+    private static void retain(TeamInfo team) {
+        team.retain();
+        cancelEviction(team);
     }
 
     /**
-     * Retrieves a player's prefix
+     * Drops a reference to the given team and removes the team once nothing
+     * references it anymore, either straight away or after the configured
+     * eviction delay.
      * 
-     * @param player The specified player.
-     * @return The player's prefix.
+     * @param team The team to release.
      */
-    static String getPrefix(String player) {
-        for (TeamInfo team : getTeams()) {
-            for (String p : getTeamPlayers(team)) {
-                if (p.equals(player)) {
-                    return team.getPrefix();
+    private static void release(final TeamInfo team) {
+        if (team.release() > 0) {
+            return;
+        }
+
+        if (evictsImmediately()) {
+            removeTeam(team);
+            return;
+        }
+
+        if (evictions.containsKey(team)) {
+            return;
+        }
+
+        int task = Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (stateLock) {
+                    evictions.remove(team);
+
+                    if (team.getReferences() <= 0 && teams.containsKey(team)) {
+                        removeTeam(team);
+                    }
                 }
             }
+
+        }, evictionDelay);
+
+        if (task != -1) {
+            evictions.put(team, task);
+        } else {
+            removeTeam(team);
         }
+    }
 
-        return "";
+    private static boolean evictsImmediately() {
+        return evictionDelay <= 0 || plugin == null;
     }
 
     /**
-     * Retrieves a player's suffix
+     * Cancels the scheduled removal of the given team, if there is one.
      * 
-     * @param player The specified player.
-     * @return The player's suffix.
+     * @param team The team to keep.
      */
-    static String getSuffix(String player) {
-        for (TeamInfo team : getTeams()) {
-            for (String p : getTeamPlayers(team)) {
-                if (p.equals(player)) {
-                    return team.getSuffix();
-                }
-            }
-        }
+    private static void cancelEviction(TeamInfo team) {
+        Integer task = evictions.remove(team);
 
-        return "";
+        if (task != null) {
+            Bukkit.getScheduler().cancelTask(task);
+        }
     }
 
     /**
-     * Retrieves the player's entire name with both the prefix and suffix.
+     * Sends packets out to players to add the given team
      * 
-     * @param player The specified player.
-     * @return The entire nametag.
+     * @param team the team to add
      */
-    static String getFormattedName(String player) {
-        return getPrefix(player) + player + getSuffix(player);
+    private static void sendPacketsAddTeam(TeamInfo team) {
+        TeamInfo.Key key = team.getKey();
+        PacketHandler mod = new PacketHandler(team.getName(), key.getPrefix(), key.getSuffix(), new ArrayList<String>(), 0);
+        PacketDispatcher.broadcast(mod, viewers.values());
     }
 
     /**
-     * Sends the current team setup and their players to the given player. This
-     * should be called when players join the server.
+     * Sends packets out to players to update the prefix and suffix of the
+     * given team
      * 
-     * @param player The player to send the packets to.
+     * @param team the team to update
      */
-    static void sendTeamsToPlayer(Player player) {
-        try {
-            for (TeamInfo team : getTeams()) {
-                PacketHandler packet = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(), new ArrayList<String>(), 0);
-                packet.sendToPlayer(player);
-                packet = new PacketHandler(team.getName(), Arrays.asList(getTeamPlayers(team)), 3);
-                packet.sendToPlayer(player);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam): ");
-            exc.printStackTrace();
-        }
+    private static void sendPacketsUpdateTeam(TeamInfo team) {
+        TeamInfo.Key key = team.getKey();
+        PacketHandler mod = new PacketHandler(team.getName(), key.getPrefix(), key.getSuffix(), new ArrayList<String>(), 2);
+        PacketDispatcher.broadcast(mod, viewers.values());
     }
 
     /**
-     * Clears out all teams and removes them for all the players. Called when
-     * the plugin is disabled.
+     * Sends packets out to players to remove the given team
+     * 
+     * @param team the team to remove
      */
-    public static void reset() {
-        for (TeamInfo team : getTeams()) {
-            removeTeam(team);
+    private static void sendPacketsRemoveTeam(TeamInfo team) {
+        if (!teams.containsKey(team)) {
+            return;
         }
+
+        TeamInfo.Key key = team.getKey();
+        PacketHandler mod = new PacketHandler(team.getName(), key.getPrefix(), key.getSuffix(), new ArrayList<String>(), 1);
+        PacketDispatcher.broadcast(mod, viewers.values());
     }
 
     /**
-     * Declares a new team in the scoreboard.dat of the given main world.
+     * Sends out packets to players to add the given players to the given team
      * 
-     * @param name The team name.
-     * @param prefix The team's prefix.
-     * @param suffix The team's suffix.
-     * @return The created TeamInfo.
+     * @param team - The team to use
+     * @param members - The players to add
      */
-    private static TeamInfo declareTeam(String name, String prefix, String suffix) {
-        if (getTeam(name) != null) {
-            TeamInfo team = getTeam(name);
-            removeTeam(team);
+    private static void sendPacketsAddToTeam(TeamInfo team, Collection<String> members) {
+        if (!teams.containsKey(team)) {
+            return;
         }
 
-        TeamInfo team = new TeamInfo(name);
-
-        team.setPrefix(prefix);
-        team.setSuffix(suffix);
-
-        register(team);
+        broadcastMembers(team, members, 3);
+    }
 
-        return team;
+    /**
+     * Sends out packets to players to remove the given players from the given
+     * team.
+     * 
+     * @param team - The team to remove from
+     * @param members - The players to remove
+     */
+    private static void sendPacketsRemoveFromTeam(TeamInfo team, Collection<String> members) {
+        broadcastMembers(team, members, 4);
     }
 
     /**
-     * Gets the ScoreboardTeam for the given prefix and suffix, and if none
-     * matches, creates a new team with the provided info. This also removes
-     * teams that currently have no players.
+     * Sends a join or leave packet for the given members to every viewer that
+     * sees their global nametag. Viewers with a tag of their own for some of
+     * the members are sent a packet without those members instead, shared by
+     * all such viewers that are left the same members.
      * 
-     * @param prefix The team's prefix.
-     * @param suffix The team's suffix.
-     * @return A team with the corresponding prefix/suffix.
+     * @param team The team joined or left.
+     * @param members The players joining or leaving.
+     * @param mode 3 to join or 4 to leave.
      */
-    private static TeamInfo getTeamInfo(String prefix, String suffix) {
-        update();
+    private static void broadcastMembers(TeamInfo team, Collection<String> members, int mode) {
+        if (interest != InterestMode.GLOBAL) {
+            broadcastMembersOfInterest(team, members, mode);
+            return;
+        }
+
+        Set<UUID> overriding = new HashSet<>();
+
+        if (!overlay.isEmpty()) {
+            for (String member : members) {
+                overriding.addAll(overlay.viewersOf(key(member)));
+            }
+        }
+
+        PacketHandler packet = new PacketHandler(team.getName(), members, mode);
+
+        if (overriding.isEmpty()) {
+            PacketDispatcher.broadcast(packet, viewers.values());
+            return;
+        }
+
+        List<Player> recipients = new ArrayList<>(viewers.size());
+
+        for (Player viewer : viewers.values()) {
+            if (!overriding.contains(viewer.getUniqueId())) {
+                recipients.add(viewer);
+            }
+        }
+
+        PacketDispatcher.broadcast(packet, recipients);
+        Map<List<String>, List<Player>> partial = new LinkedHashMap<>();
+
+        for (UUID id : overriding) {
+            Player viewer = viewers.get(id);
+
+            if (viewer == null) {
+                continue;
+            }
 
-        for (int t : list.toArray(new Integer[list.size()])) {
-            if (getTeam(TEAM_NAME_PREFIX + t) != null) {
-                TeamInfo team = getTeam(TEAM_NAME_PREFIX + t);
+            List<String> visible = new ArrayList<>(members.size());
 
-                if (team.getSuffix().equals(suffix) && team.getPrefix().equals(prefix)) {
-                    return team;
+            for (String member : members) {
+                if (overlay.get(id, key(member)) == null) {
+                    visible.add(member);
                 }
             }
+
+            if (!visible.isEmpty()) {
+                group(partial, visible, viewer);
+            }
         }
 
-        return declareTeam(TEAM_NAME_PREFIX + nextName(), prefix, suffix);
+        broadcastGroups(team, mode, partial);
     }
 
     /**
-     * Returns the next available team name that is not taken.
+     * Sends a join or leave packet for the given members to every viewer,
+     * leaving out the members the viewer is not interested in or sees a tag of
+     * their own for. What a viewer keeps seeing of a member they are not interested
+     * in is remembered, so it can be synced once they are. Viewers left with
+     * the same members share one packet.
      * 
-     * @return an integer that for a team name that is not taken.
+     * @param team The team joined or left.
+     * @param members The players joining or leaving.
+     * @param mode 3 to join or 4 to leave.
      */
-    private static int nextName() {
-        int at = 0;
-        boolean cont = true;
+    private static void broadcastMembersOfInterest(TeamInfo team, Collection<String> members, int mode) {
+        String[] names = members.toArray(new String[members.size()]);
+        String[] ids = new String[names.length];
+        Player[] targets = new Player[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = key(names[i]);
+            targets[i] = onlinePlayers.get(ids[i]);
+        }
+
+        List<Player> recipients = new ArrayList<>(viewers.size());
+        Map<List<String>, List<Player>> partial = new LinkedHashMap<>();
 
-        while (cont) {
-            cont = false;
+        for (Player viewer : viewers.values()) {
+            UUID uuid = viewer.getUniqueId();
+            List<String> visible = new ArrayList<>(names.length);
+
+            for (int i = 0; i < names.length; i++) {
+                if (overlay.get(uuid, ids[i]) != null || stale.get(uuid, ids[i]) != null) {
+                    continue;
+                }
 
-            for (int t : list.toArray(new Integer[list.size()])) {
-                if (t == at) {
-                    at++;
-                    cont = true;
+                if (isInterested(viewer, targets[i])) {
+                    visible.add(names[i]);
+                } else {
+                    // The viewer keeps seeing the player where they were before this change.
+                    stale.put(uuid, ids[i], mode == 4 ? new ViewerOverlay.Tag(team, names[i]) : new ViewerOverlay.Tag(null, null));
                 }
+            }
+
+            if (visible.size() < names.length && stale.size(uuid) > missedLimit) {
+                overgrown.add(uuid);
+            }
 
+            if (visible.size() == names.length) {
+                recipients.add(viewer);
+            } else if (!visible.isEmpty()) {
+                group(partial, visible, viewer);
             }
         }
 
-        list.add(at);
-        return at;
+        PacketDispatcher.broadcast(new PacketHandler(team.getName(), members, mode), recipients);
+        broadcastGroups(team, mode, partial);
     }
 
     /**
-     * Removes any teams that do not have any players in them.
+     * Sends each group of viewers one join or leave packet for the members
+     * they are left with.
+     * 
+     * @param team The team joined or left.
+     * @param mode 3 to join or 4 to leave.
+     * @param groups The viewers by the members they are sent.
      */
-    private static void update() {
-        for (TeamInfo team : getTeams()) {
-            int entry = -1;
+    private static void broadcastGroups(TeamInfo team, int mode, Map<List<String>, List<Player>> groups) {
+        for (Entry<List<String>, List<Player>> group : groups.entrySet()) {
+            PacketDispatcher.broadcast(new PacketHandler(team.getName(), group.getKey(), mode), group.getValue());
+        }
+    }
 
-            try {
-                entry = Integer.parseInt(team.getName());
-            } catch (Exception exc) {}
+    private static boolean isInterested(Player viewer, Player target) {
+        if (target == null || target == viewer) {
+            return true;
+        }
 
-            if (entry != -1) {
-                if (getTeamPlayers(team).length == 0) {
-                    removeTeam(team);
-                    list.remove(new Integer(entry));
-                }
-            }
+        Position from = getPosition(viewer);
+        Position to = getPosition(target);
+
+        if (!from.world.equals(to.world)) {
+            return false;
         }
+
+        return interest != InterestMode.RADIUS || from.location.distanceSquared(to.location) <= radiusSquared;
     }
 
     /**
-     * Sends packets out to players to add the given team
+     * Returns where the given player is, looking them up only once during a
+     * change.
      * 
-     * @param team the team to add
+     * @param player The specified player.
+     * @return The player's world, and their location in
+     *         {@link InterestMode#RADIUS} mode.
      */
-    private static void sendPacketsAddTeam(TeamInfo team) {
-        try {
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                PacketHandler mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(), new ArrayList<String>(), 0);
-                mod.sendToPlayer(p);
+    private static Position getPosition(Player player) {
+        Position position = positions != null ? positions.get(player.getUniqueId()) : null;
+
+        if (position == null) {
+            position = new Position(player.getWorld(), interest == InterestMode.RADIUS ? player.getLocation() : null);
+
+            if (positions != null) {
+                positions.put(player.getUniqueId(), position);
             }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
         }
+
+        return position;
     }
 
     /**
-     * Sends packets out to players to remove the given team
+     * Sends the given viewer the changes they missed to a player, if the
+     * player is of interest to them again.
      * 
-     * @param team the team to remove
+     * @param viewer The viewer to sync.
+     * @param id The player's name in lower case.
      */
-    private static void sendPacketsRemoveTeam(TeamInfo team) {
-        boolean cont = false;
-
-        for (TeamInfo t : getTeams()) {
-            if (t == team) {
-                cont = true;
-            }
+    private static void resync(Player viewer, String id) {
+        if (isInterested(viewer, onlinePlayers.get(id))) {
+            sync(viewer, id);
         }
+    }
 
-        if (!cont) {
-            return;
-        }
+    /**
+     * Sends the given viewer the changes they missed to a player.
+     * 
+     * @param viewer The viewer to sync.
+     * @param id The player's name in lower case.
+     */
+    private static void sync(Player viewer, String id) {
+        ViewerOverlay.Tag from = getShown(viewer.getUniqueId(), id);
+        stale.remove(viewer.getUniqueId(), id);
+        ViewerOverlay.Tag to = getShown(viewer.getUniqueId(), id);
 
-        try {
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                PacketHandler mod = new PacketHandler(team.getName(), team.getPrefix(), team.getSuffix(), new ArrayList<String>(), 1);
-                mod.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+        if (from.getTeam() != to.getTeam()) {
+            sendPacketsMoveFor(viewer, from.getTeam(), from.getName(), to.getTeam(), to.getName());
         }
     }
 
     /**
-     * Sends out packets to players to add the given player to the given team
+     * Returns the team the given viewer's client currently shows a player in.
      * 
-     * @param team - The team to use
-     * @param player - The player to add
+     * @param viewer The viewer's unique id.
+     * @param id The player's name in lower case.
+     * @return The team and the name the player was sent with; the team is
+     *         {@code null} if the player is in none.
      */
-    private static void sendPacketsAddToTeam(TeamInfo team, String player) {
-        boolean cont = false;
+    private static ViewerOverlay.Tag getShown(UUID viewer, String id) {
+        ViewerOverlay.Tag tag = stale.get(viewer, id);
 
-        for (TeamInfo t : getTeams()) {
-            if (t == team) {
-                cont = true;
-            }
+        if (tag != null) {
+            // A team removed since took the player with it.
+            return tag.getTeam() != null && names.get(tag.getTeam().getName()) == tag.getTeam() ? tag : new ViewerOverlay.Tag(null, null);
         }
 
-        if (!cont) {
-            return;
-        }
+        tag = overlay.get(viewer, id);
 
-        try {
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                PacketHandler packet = new PacketHandler(team.getName(), Arrays.asList(player), 3);
-                packet.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
+        if (tag != null) {
+            return tag;
         }
+
+        TeamInfo team = players.get(id);
+        return new ViewerOverlay.Tag(team, team != null ? teams.get(team).get(id) : null);
     }
 
     /**
-     * Sends out packets to players to remove the given player from the given
-     * team.
+     * Sends one viewer the packets moving a player from the team they saw
+     * them in to another.
      * 
-     * @param team - The team to remove from
-     * @param player - The player to remove
+     * @param viewer The viewer to send the packets to.
+     * @param from The team the viewer saw the player in, if any.
+     * @param fromName The name the player was sent with in that team.
+     * @param to The team the viewer sees the player in now, if any.
+     * @param toName The name to send the player with in that team.
      */
-    private static void sendPacketsRemoveFromTeam(TeamInfo team, String player) {
-        boolean cont = false;
-
-        for (TeamInfo t : getTeams()) {
-            if (t == team) {
-                for (String p : getTeamPlayers(t)) {
-                    if (p.equals(player)) {
-                        cont = true;
-                    }
-                }
-            }
-        }
-
-        if (!cont) {
+    private static void sendPacketsMoveFor(Player viewer, TeamInfo from, String fromName, TeamInfo to, String toName) {
+        if (from == to) {
             return;
         }
 
-        try {
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                PacketHandler packet = new PacketHandler(team.getName(), Arrays.asList(player), 4);
-                packet.sendToPlayer(p);
-            }
-        } catch (Exception exc) {
-            plugin.getLogger().warning("Failed to send packet for player (Packet209SetScoreboardTeam) : ");
-            exc.printStackTrace();
-        }
-    }
+        List<PacketHandler> packets = new ArrayList<>(2);
 
-    private static void addToTeam(TeamInfo team, String player) {
-        removeFromTeam(player);
-        List<String> list = teams.get(team);
+        if (from != null) {
+            packets.add(new PacketHandler(from.getName(), Collections.singletonList(fromName), 4));
+        }
 
-        if (list != null) {
-            list.add(player);
+        if (to != null) {
+            packets.add(new PacketHandler(to.getName(), Collections.singletonList(toName), 3));
+        }
 
-            Player p = Bukkit.getPlayerExact(player);
+        PacketDispatcher.send(packets, viewer);
+    }
 
-            if (p != null) {
-                sendPacketsAddToTeam(team, p.getName());
-            } else {
-                OfflinePlayer p2 = Bukkit.getOfflinePlayer(player);
-                sendPacketsAddToTeam(team, p2.getName());
-            }
-        }
+    private static void addToTeam(TeamInfo team, String id, String name) {
+        changed(team);
+        teams.get(team).put(id, name);
+        players.put(id, team);
+        retain(team);
     }
 
     private static void register(TeamInfo team) {
-        teams.put(team, new ArrayList<String>());
+        changed(team);
+        teams.put(team, new LinkedHashMap<String, String>());
+        tags.put(team.getKey(), team);
+        names.put(team.getName(), team);
+        NametagMetrics.teamCreated();
         sendPacketsAddTeam(team);
     }
 
     private static boolean removeTeam(String name) {
-        for (TeamInfo team : teams.keySet().toArray(new TeamInfo[teams.size()])) {
-            if (team.getName().equals(name)) {
-                removeTeam(team);
-                return true;
-            }
+        TeamInfo team = names.get(name);
+
+        if (team != null) {
+            removeTeam(team);
+            return true;
         }
 
         return false;
     }
 
     private static void removeTeam(TeamInfo team) {
+        cancelEviction(team);
         sendPacketsRemoveTeam(team);
-        teams.remove(team);
-    }
-
-    private static TeamInfo removeFromTeam(String player) {
-        for (TeamInfo team : teams.keySet().toArray(new TeamInfo[teams.size()])) {
-            List<String> list = teams.get(team);
+        Map<String, String> members = teams.remove(team);
 
-            for (String p : list.toArray(new String[list.size()])) {
-                if (p.equals(player)) {
-                    Player pl = Bukkit.getPlayerExact(player);
+        if (members != null) {
+            NametagMetrics.teamRemoved();
+        }
 
-                    if (pl != null) {
-                        sendPacketsRemoveFromTeam(team, pl.getName());
-                    } else {
-                        OfflinePlayer p2 = Bukkit.getOfflinePlayer(p);
-                        sendPacketsRemoveFromTeam(team, p2.getName());
-                    }
+        changed(team);
+        names.remove(team.getName());
+        ids.release(team.getId());
 
-                    list.remove(p);
+        if (tags.get(team.getKey()) == team) {
+            tags.remove(team.getKey());
+        }
 
-                    return team;
-                }
+        if (members != null) {
+            for (String id : members.keySet()) {
+                players.remove(id);
             }
         }
+    }
+
+    /**
+     * Removes a player from the given team.
+     * 
+     * @param team The team the player is in.
+     * @param id The player's name in lower case.
+     * @return The name the player was sent with when they joined the team.
+     */
+    private static String removeFromTeam(TeamInfo team, String id) {
+        players.remove(id);
+        changed(team);
+        return teams.get(team).remove(id);
+    }
 
-        return null;
+    /**
+     * Drops the cached snapshot of the given team and marks the teams as
+     * changed since they were last saved.
+     * 
+     * @param team The team that changed.
+     */
+    private static void changed(TeamInfo team) {
+        snapshots.remove(team);
+        revision++;
     }
 
     private static TeamInfo getTeam(String name) {
-        for (TeamInfo team : teams.keySet().toArray(new TeamInfo[teams.size()])) {
-            if (team.getName().equals(name)) {
-                return team;
-            }
-        }
+        return names.get(name);
+    }
+
+    private static TeamInfo.Key getKey(String player) {
+        TeamInfo team = players.get(key(player));
+        return team != null ? team.getKey() : null;
+    }
+
+    /**
+     * Returns the name of the given player as it should appear in packets,
+     * which is the exact name of the online player it matches. Names of
+     * players that are not online are used as given.
+     * 
+     * @param player The specified player.
+     * @return The player's name.
+     */
+    private static String getPacketName(String player) {
+        Player online = onlinePlayers.get(key(player));
+        return online != null ? online.getName() : player;
+    }
 
-        return null;
+    /**
+     * Returns the key the given player is indexed by, which is their name in
+     * lower case so lookups ignore case.
+     * 
+     * @param player The specified player.
+     * @return The player's name in lower case.
+     */
+    private static String key(String player) {
+        return player.toLowerCase(Locale.ROOT);
     }
 
     private static TeamInfo[] getTeams() {
@@ -498,14 +1759,50 @@ final class NametagManager {
         return list;
     }
 
-    private static String[] getTeamPlayers(TeamInfo team) {
-        List<String> list = teams.get(team);
+    /** Where a player was when they were looked up during a change. */
+    private static final class Position {
 
-        if (list != null) {
-            return list.toArray(new String[list.size()]);
-        } else {
-            return new String[0];
+        private final World world;
+        /** The player's location, only looked up in {@link InterestMode#RADIUS} mode. */
+        private final Location location;
+
+        private Position(World world, Location location) {
+            this.world = world;
+            this.location = location;
+        }
+
+    }
+
+    /** A nametag change queued by {@link NametagAPI} until the end of the tick. */
+    private static final class Mutation {
+
+        private final String player;
+        private final String prefix;
+        private final String suffix;
+        /** The type of change, or {@code null} if the nametag is cleared. */
+        private final NametagChangeType type;
+        /** Completed once the change is applied, if the caller waits for it. */
+        private final CompletableFuture<Boolean> result;
+        /** Whether the change was published by another server. */
+        private final boolean remote;
+
+        private Mutation(String player, String prefix, String suffix, NametagChangeType type) {
+            this(player, prefix, suffix, type, null);
+        }
+
+        private Mutation(String player, String prefix, String suffix, NametagChangeType type, CompletableFuture<Boolean> result) {
+            this(player, prefix, suffix, type, result, false);
+        }
+
+        private Mutation(String player, String prefix, String suffix, NametagChangeType type, CompletableFuture<Boolean> result, boolean remote) {
+            this.player = player;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.type = type;
+            this.result = result;
+            this.remote = remote;
         }
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package io.isles.nametagapi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what NametagAPI does: teams created, updated and removed, packets
+ * built and sent for each team packet mode, and how long the main operations
+ * take. Counters are striped and never lock, so they are always on.
+ *
+ * <br>
+ * <br>
+ *
+ * Packet modes are 0 to create a team, 1 to remove it, 2 to update it, 3 to
+ * add players to it and 4 to remove players from it.
+ *
+ * @author Hyphenical Technologies
+ */
+public final class NametagMetrics {
+
+    private static final int MODES = 5;
+
+    private static final LongAdder teamsCreated = new LongAdder();
+    private static final LongAdder teamsUpdated = new LongAdder();
+    private static final LongAdder teamsRemoved = new LongAdder();
+    private static final LongAdder[] packetsBuilt = adders(MODES);
+    private static final LongAdder[] packetsSent = adders(MODES);
+
+    /** Applying the nametag changes queued during a tick. */
+    static final LatencyHistogram flush = new LatencyHistogram("flush");
+    /** Sending every team to a joining player. */
+    static final LatencyHistogram join = new LatencyHistogram("join");
+    /** Building a single team packet. */
+    static final LatencyHistogram build = new LatencyHistogram("build");
+    /** Sending a single packet to every viewer. */
+    static final LatencyHistogram broadcast = new LatencyHistogram("broadcast");
+
+    /** Prevent class instantiation. */
+    private NametagMetrics() {}
+
+    static void teamCreated() {
+        teamsCreated.increment();
+    }
+
+    static void teamUpdated() {
+        teamsUpdated.increment();
+    }
+
+    static void teamRemoved() {
+        teamsRemoved.increment();
+    }
+
+    static void packetBuilt(int mode) {
+        if (mode >= 0 && mode < MODES) {
+            packetsBuilt[mode].increment();
+        }
+    }
+
+    static void packetSent(int mode) {
+        if (mode >= 0 && mode < MODES) {
+            packetsSent[mode].increment();
+        }
+    }
+
+    /**
+     * Returns how many teams were created.
+     *
+     * @return The number of teams created.
+     */
+    public static long getTeamsCreated() {
+        return teamsCreated.sum();
+    }
+
+    /**
+     * Returns how many times a team's prefix and suffix were updated in place.
+     *
+     * @return The number of team updates.
+     */
+    public static long getTeamsUpdated() {
+        return teamsUpdated.sum();
+    }
+
+    /**
+     * Returns how many teams were removed.
+     *
+     * @return The number of teams removed.
+     */
+    public static long getTeamsRemoved() {
+        return teamsRemoved.sum();
+    }
+
+    /**
+     * Returns how many packets of the given mode were built. A packet is
+     * built once, however many players it is sent to.
+     *
+     * @param mode The team packet mode, from 0 to 4.
+     * @return The number of packets built.
+     */
+    public static long getPacketsBuilt(int mode) {
+        return mode >= 0 && mode < MODES ? packetsBuilt[mode].sum() : 0;
+    }
+
+    /**
+     * Returns how many packets of the given mode were sent, counting every
+     * player a packet was sent to.
+     *
+     * @param mode The team packet mode, from 0 to 4.
+     * @return The number of packets sent.
+     */
+    public static long getPacketsSent(int mode) {
+        return mode >= 0 && mode < MODES ? packetsSent[mode].sum() : 0;
+    }
+
+    /**
+     * Returns the number of teams currently registered.
+     *
+     * @return The number of teams.
+     */
+    public static int getTeamCount() {
+        return NametagManager.getTeamCount();
+    }
+
+    /**
+     * Returns the number of players that currently have a custom nametag.
+     *
+     * @return The number of team members.
+     */
+    public static int getMemberCount() {
+        return NametagManager.getMemberCount();
+    }
+
+    /**
+     * Returns how long the operations measured take: flush, join, build and
+     * broadcast.
+     *
+     * @return The histogram of each operation.
+     */
+    public static LatencyHistogram[] getLatencies() {
+        return new LatencyHistogram[] { flush, join, build, broadcast };
+    }
+
+    /**
+     * Resets every counter and histogram. The live team and member counts
+     * are not affected.
+     */
+    public static void reset() {
+        teamsCreated.reset();
+        teamsUpdated.reset();
+        teamsRemoved.reset();
+
+        for (int i = 0; i < MODES; i++) {
+            packetsBuilt[i].reset();
+            packetsSent[i].reset();
+        }
+
+        for (LatencyHistogram histogram : getLatencies()) {
+            histogram.reset();
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+}
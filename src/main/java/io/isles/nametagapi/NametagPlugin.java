@@ -1,36 +1,222 @@
 package io.isles.nametagapi;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
 import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 public final class NametagPlugin extends JavaPlugin implements Listener {
 
     private static NametagPlugin instance;
+    private NametagStore store;
+    private BukkitTask saveTask;
+    private boolean clearOnJoin;
 
     @Override
     public void onEnable() {
         instance = this;
-        NametagManager.load();
+        saveDefaultConfig();
+        NametagManager.setEvictionDelay(getConfig().getLong("eviction-delay", 0));
+        PacketDispatcher.setLogger(getLogger());
+        NametagReplicator.setLogger(getLogger());
+
+        if (getConfig().getBoolean("async-dispatch.enabled", false)) {
+            PacketDispatcher.start(getConfig().getInt("async-dispatch.threads", 2), getConfig().getInt("async-dispatch.queue-size", 4096));
+        }
+
+        String transport = getConfig().getString("packet-transport", "connection");
+
+        if (transport.equalsIgnoreCase("direct") || transport.equalsIgnoreCase("encoded")) {
+            if (PacketDispatcher.setDirect(true)) {
+                if (transport.equalsIgnoreCase("encoded") && !PacketDispatcher.setEncoded(true)) {
+                    getLogger().warning("Encoded packet transport is not supported on this server, using direct");
+                }
+
+                Bukkit.getScheduler().runTaskTimer(this, new Runnable() {
+
+                    @Override
+                    public void run() {
+                        PacketDispatcher.flushWrites();
+                    }
+
+                }, 1, 1);
+            } else {
+                getLogger().warning("Direct packet transport is not supported on this server, using connection");
+            }
+        }
+
+        String mode = getConfig().getString("interest.mode", "global");
+        InterestMode interest = InterestMode.GLOBAL;
+
+        try {
+            interest = InterestMode.valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exc) {
+            getLogger().warning("Unknown interest mode '" + mode + "', using global");
+        }
+
+        NametagManager.setInterest(interest, getConfig().getDouble("interest.radius", 64));
+        NametagManager.setMissedLimit(getConfig().getInt("interest.max-missed", NametagManager.DEFAULT_MISSED_LIMIT));
+
+        if (interest == InterestMode.RADIUS) {
+            long period = Math.max(1, getConfig().getLong("interest.refresh-ticks", 20));
+
+            Bukkit.getScheduler().runTaskTimer(this, new Runnable() {
+
+                @Override
+                public void run() {
+                    NametagManager.refreshInterest();
+                }
+
+            }, period, period);
+        }
+
+        List<NametagStore.Team> restored = Collections.emptyList();
+        clearOnJoin = isClearOnJoin(getConfig());
+
+        if (getConfig().getBoolean("persistence.enabled", false)) {
+            store = new NametagStore(new File(getDataFolder(), "nametags.dat"));
+
+            try {
+                restored = store.read();
+            } catch (IOException exc) {
+                getLogger().log(Level.WARNING, "Failed to load nametags from " + store.getFile(), exc);
+            }
+
+            long interval = Math.max(1, getConfig().getLong("persistence.save-interval", 100));
+
+            saveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, new Runnable() {
+
+                @Override
+                public void run() {
+                    save();
+                }
+
+            }, interval, interval);
+        }
+
+        List<Nametag> pins = new ArrayList<>();
+
+        for (Map<?, ?> team : getConfig().getMapList("pinned-teams")) {
+            Object prefix = team.get("prefix");
+            Object suffix = team.get("suffix");
+            pins.add(new Nametag(prefix != null ? prefix.toString() : "", suffix != null ? suffix.toString() : ""));
+        }
+
+        NametagManager.load(this, restored, pins);
+
+        if (getConfig().getBoolean("replication.enabled", false)) {
+            NametagReplicator.start(new PluginMessageTransport(this));
+        }
+
         Bukkit.getPluginManager().registerEvents(this, this);
     }
 
     @Override
     public void onDisable() {
+        if (saveTask != null) {
+            // No background save may start after the final one, or it would save the teams removed below.
+            saveTask.cancel();
+            saveTask = null;
+        }
+
+        if (store != null) {
+            save();
+        }
+
+        NametagReplicator.stop();
         NametagManager.reset();
+        PacketDispatcher.stop();
+        PacketDispatcher.setDirect(false);
+        PacketDispatcher.setEncoded(false);
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length != 1 || !args[0].equalsIgnoreCase("stats")) {
+            return false;
+        }
+
+        String[] modes = { "create", "remove", "update", "join", "leave" };
+        StringBuilder packets = new StringBuilder("Packets built/sent:");
+
+        for (int mode = 0; mode < modes.length; mode++) {
+            packets.append(mode > 0 ? ", " : " ").append(modes[mode]).append(' ')
+                            .append(NametagMetrics.getPacketsBuilt(mode)).append('/').append(NametagMetrics.getPacketsSent(mode));
+        }
+
+        sender.sendMessage("NametagAPI: " + NametagMetrics.getTeamCount() + " teams, " + NametagMetrics.getMemberCount() + " tagged players");
+        sender.sendMessage("Teams created/updated/removed: " + NametagMetrics.getTeamsCreated() + "/" + NametagMetrics.getTeamsUpdated() + "/"
+                        + NametagMetrics.getTeamsRemoved());
+        sender.sendMessage(packets.toString());
+
+        for (LatencyHistogram latency : NametagMetrics.getLatencies()) {
+            sender.sendMessage(String.format(Locale.ROOT, "%s: %d runs, mean %.1fus, p50 <%.1fus, p99 <%.1fus", latency.getName(), latency.getCount(),
+                            latency.getMeanNanos() / 1000D, latency.getPercentileNanos(50) / 1000D, latency.getPercentileNanos(99) / 1000D));
+        }
+
+        return true;
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
         NametagManager.sendTeamsToPlayer(player);
-        NametagManager.clear(player.getName());
+
+        if (clearOnJoin) {
+            NametagManager.clear(player.getName());
+        }
+
+        NametagManager.refreshInterest(player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        NametagManager.refreshInterest(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        NametagManager.removeViewer(event.getPlayer());
     }
     
+    private void save() {
+        try {
+            NametagManager.save(store);
+        } catch (IOException exc) {
+            getLogger().log(Level.WARNING, "Failed to save nametags to " + store.getFile(), exc);
+        }
+    }
+
+    /**
+     * Returns whether players' nametags are cleared when they join. Unless
+     * set, they are only when nametags are not persisted, as clearing them
+     * would throw away the ones restored after a restart.
+     * 
+     * @param config The plugin's configuration.
+     * @return Whether to clear nametags on join.
+     */
+    static boolean isClearOnJoin(ConfigurationSection config) {
+        return config.getBoolean("clear-on-join", !config.getBoolean("persistence.enabled", false));
+    }
+
     static NametagPlugin getInstance() {
         return instance;
     }
@@ -0,0 +1,223 @@
+package io.isles.nametagapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the nametag changes made on this server through a
+ * {@link ReplicationTransport}, and queues the changes other servers publish
+ * so they are applied with the next flush.
+ *
+ * <br>
+ * <br>
+ *
+ * Each message holds the final tag of every player changed in one flush. The
+ * distinct tags are written once, followed by each player's name and the
+ * index of their tag, so a rank given to many players at once costs a few
+ * bytes per player. Changes received from other servers do not fire events
+ * and are not published again.
+ */
+final class NametagReplicator {
+
+    private static final byte VERSION = 1;
+    /** Keeps messages well below the size plugin messages are limited to. */
+    private static final int MAX_CHANGES_PER_MESSAGE = 200;
+    /**
+     * Tells this server's messages apart from those of other servers. Other
+     * endpoints in the same process, such as tests standing in for other
+     * servers, encode their messages with an origin of their own.
+     */
+    private static final UUID origin = UUID.randomUUID();
+
+    private static volatile ReplicationTransport transport;
+    private static Logger logger = Logger.getLogger("NametagAPI");
+
+    private static final ReplicationTransport.Receiver receiver = new ReplicationTransport.Receiver() {
+
+        @Override
+        public void receive(byte[] message) {
+            try {
+                Map<String, TeamInfo.Key> changes = decode(message, origin);
+
+                if (changes != null && !changes.isEmpty()) {
+                    NametagManager.enqueueRemote(changes);
+                }
+            } catch (IOException exc) {
+                logger.log(Level.WARNING, "Received malformed nametag changes", exc);
+            }
+        }
+
+    };
+
+    /** Prevent class instantiation. */
+    private NametagReplicator() {}
+
+    /**
+     * Starts publishing and receiving changes through the given transport,
+     * replacing the current one.
+     *
+     * @param transport The transport to use.
+     */
+    static synchronized void start(ReplicationTransport transport) {
+        stop();
+        transport.start(receiver);
+        NametagReplicator.transport = transport;
+    }
+
+    /**
+     * Stops publishing and receiving changes.
+     */
+    static synchronized void stop() {
+        ReplicationTransport current = transport;
+
+        if (current != null) {
+            transport = null;
+            current.stop();
+        }
+    }
+
+    /**
+     * Sets the logger failures are reported to.
+     *
+     * @param logger The logger to use.
+     */
+    static void setLogger(Logger logger) {
+        NametagReplicator.logger = logger;
+    }
+
+    /**
+     * Returns whether changes are being published.
+     *
+     * @return {@code true} if a transport is set.
+     */
+    static boolean isEnabled() {
+        return transport != null;
+    }
+
+    /**
+     * Publishes the final tag of each changed player to the other servers.
+     *
+     * @param changes The new prefix and suffix of each player, or
+     *            {@code null} for players whose nametag was cleared.
+     */
+    static void publish(Map<String, TeamInfo.Key> changes) {
+        ReplicationTransport current = transport;
+
+        if (current == null || changes.isEmpty()) {
+            return;
+        }
+
+        List<Entry<String, TeamInfo.Key>> entries = new ArrayList<>(changes.entrySet());
+
+        try {
+            for (int from = 0; from < entries.size(); from += MAX_CHANGES_PER_MESSAGE) {
+                current.publish(encode(origin, entries.subList(from, Math.min(entries.size(), from + MAX_CHANGES_PER_MESSAGE))));
+            }
+        } catch (RuntimeException exc) {
+            logger.log(Level.WARNING, "Failed to publish nametag changes", exc);
+        }
+    }
+
+    /**
+     * Writes the given changes into a message.
+     *
+     * @param origin The server publishing the changes.
+     * @param changes The new prefix and suffix of each player, or
+     *            {@code null} for players whose nametag was cleared.
+     * @return The message.
+     */
+    static byte[] encode(UUID origin, List<Entry<String, TeamInfo.Key>> changes) {
+        Map<TeamInfo.Key, Integer> indices = new LinkedHashMap<>();
+
+        for (Entry<String, TeamInfo.Key> change : changes) {
+            if (change.getValue() != null && !indices.containsKey(change.getValue())) {
+                indices.put(change.getValue(), indices.size());
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + changes.size() * 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeByte(VERSION);
+            out.writeLong(origin.getMostSignificantBits());
+            out.writeLong(origin.getLeastSignificantBits());
+            out.writeShort(indices.size());
+
+            for (TeamInfo.Key key : indices.keySet()) {
+                out.writeUTF(key.getPrefix());
+                out.writeUTF(key.getSuffix());
+            }
+
+            out.writeShort(changes.size());
+
+            for (Entry<String, TeamInfo.Key> change : changes) {
+                out.writeUTF(change.getKey());
+                out.writeShort(change.getValue() != null ? indices.get(change.getValue()) : -1);
+            }
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the changes in a message.
+     *
+     * @param message The message.
+     * @param self The server reading the message.
+     * @return The changes by player, or {@code null} if the reading server
+     *         published them.
+     * @throws IOException If the message is malformed.
+     */
+    static Map<String, TeamInfo.Key> decode(byte[] message, UUID self) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+        int version = in.readByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported message version " + version);
+        }
+
+        long most = in.readLong();
+        long least = in.readLong();
+
+        if (most == self.getMostSignificantBits() && least == self.getLeastSignificantBits()) {
+            return null;
+        }
+
+        TeamInfo.Key[] keys = new TeamInfo.Key[in.readUnsignedShort()];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new TeamInfo.Key(in.readUTF(), in.readUTF());
+        }
+
+        int count = in.readUnsignedShort();
+        Map<String, TeamInfo.Key> changes = new LinkedHashMap<>(count * 2);
+
+        for (int i = 0; i < count; i++) {
+            String player = in.readUTF();
+            int index = in.readShort();
+
+            if (index >= keys.length) {
+                throw new IOException("Tag index out of range: " + index);
+            }
+
+            changes.put(player, index >= 0 ? keys[index] : null);
+        }
+
+        return changes;
+    }
+
+}
@@ -0,0 +1,180 @@
+package io.isles.nametagapi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saves the managed teams and their members to a binary file, so they can be
+ * restored when the plugin is enabled again without every nametag being set
+ * anew.
+ *
+ * <br>
+ * <br>
+ *
+ * The file holds a header followed by each team's number, prefix, suffix,
+ * whether it is pinned, and the names of its members. It is written to a
+ * temporary file first and then moved over the previous one, so a crash
+ * while saving never leaves a partial file behind.
+ */
+final class NametagStore {
+
+    /** "NTAG" in ASCII. */
+    private static final int MAGIC = 0x4E544147;
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /**
+     * Constructs a new NametagStore saving to the given file.
+     *
+     * @param file The file to save to.
+     */
+    NametagStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the teams saved last.
+     *
+     * @return The saved teams, which is empty if nothing was saved yet.
+     * @throws IOException If the file could not be read or is not a nametag
+     *             file.
+     */
+    List<Team> read() throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a nametag file: " + file);
+            }
+
+            int version = in.readInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported nametag file version " + version + ": " + file);
+            }
+
+            int count = in.readInt();
+            List<Team> teams = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                String prefix = in.readUTF();
+                String suffix = in.readUTF();
+                boolean pinned = in.readBoolean();
+                String[] members = new String[in.readInt()];
+
+                for (int j = 0; j < members.length; j++) {
+                    members[j] = in.readUTF();
+                }
+
+                teams.add(new Team(id, prefix, suffix, pinned, members));
+            }
+
+            return teams;
+        }
+    }
+
+    /**
+     * Replaces the saved teams with the given ones.
+     *
+     * @param teams The teams to save.
+     * @throws IOException If the file could not be written.
+     */
+    synchronized void write(List<Team> teams) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        File temp = new File(parent, file.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(teams.size());
+
+            for (Team team : teams) {
+                out.writeInt(team.id);
+                out.writeUTF(team.prefix);
+                out.writeUTF(team.suffix);
+                out.writeBoolean(team.pinned);
+                out.writeInt(team.members.length);
+
+                for (String member : team.members) {
+                    out.writeUTF(member);
+                }
+            }
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exc) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the file this store saves to.
+     *
+     * @return The file.
+     */
+    File getFile() {
+        return file;
+    }
+
+    /** A saved team with the names of its members. */
+    static final class Team {
+
+        private final int id;
+        private final String prefix;
+        private final String suffix;
+        private final boolean pinned;
+        private final String[] members;
+
+        Team(int id, String prefix, String suffix, boolean pinned, String[] members) {
+            this.id = id;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.pinned = pinned;
+            this.members = members;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        String getPrefix() {
+            return prefix;
+        }
+
+        String getSuffix() {
+            return suffix;
+        }
+
+        boolean isPinned() {
+            return pinned;
+        }
+
+        String[] getMembers() {
+            return members;
+        }
+
+    }
+
+}
@@ -0,0 +1,317 @@
+package io.isles.nametagapi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Delivers team packets to players. By default packets are built and sent on
+ * the calling thread. Once {@link #start(int, int)} is called, they are
+ * handed to a fixed set of worker threads instead, so the main thread only
+ * works out which packets to send.
+ *
+ * <br>
+ * <br>
+ *
+ * Every player is always served by the same single-threaded worker, so the
+ * packets a player receives arrive in the order they were dispatched and a
+ * team is always created before anyone is added to it.
+ *
+ * <br>
+ * <br>
+ *
+ * In direct mode packets are written to each player's network channel
+ * without being flushed, and every channel written to is flushed once by
+ * {@link #flushWrites()}, instead of once per packet. Packets can also be
+ * encoded once and the same bytes written to every channel.
+ */
+final class PacketDispatcher {
+
+    /** The workers packets are handed to, or {@code null} to send directly. */
+    private static volatile ThreadPoolExecutor[] workers;
+    /** Whether packets are written to players' channels and flushed later. */
+    private static volatile boolean direct;
+    /** Whether packets written in direct mode are encoded once and shared. */
+    private static volatile boolean encoded;
+    /** The channels written to since they were last flushed. */
+    private static final Set<Object> unflushed = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+    private static Logger logger = Logger.getLogger("NametagAPI");
+
+    /** Prevent class instantiation. */
+    private PacketDispatcher() {}
+
+    /**
+     * Starts sending packets from worker threads.
+     *
+     * @param threads The number of worker threads.
+     * @param queueSize The number of pending deliveries each worker holds
+     *            before callers wait for it to catch up.
+     */
+    static synchronized void start(int threads, int queueSize) {
+        stop();
+
+        ThreadPoolExecutor[] executors = new ThreadPoolExecutor[Math.max(1, threads)];
+
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                            new WorkerFactory(i), new WaitPolicy());
+        }
+
+        workers = executors;
+    }
+
+    /**
+     * Stops the worker threads, waiting for pending deliveries to finish.
+     * Packets are sent from the calling thread again afterwards.
+     */
+    static synchronized void stop() {
+        ThreadPoolExecutor[] executors = workers;
+
+        if (executors == null) {
+            return;
+        }
+
+        workers = null;
+
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+
+        try {
+            for (ThreadPoolExecutor executor : executors) {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets whether packets are written straight to players' channels and left
+     * for {@link #flushWrites()} to flush. Pending writes are flushed when
+     * direct mode is turned off.
+     *
+     * @param direct {@code true} to write to channels directly.
+     * @return {@code false} if direct writes are not supported on this
+     *         server, otherwise {@code true}.
+     */
+    static boolean setDirect(boolean direct) {
+        if (direct && !PacketHandler.isDirectSupported()) {
+            return false;
+        }
+
+        PacketDispatcher.direct = direct;
+
+        if (!direct) {
+            flushWrites();
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets whether packets written in direct mode are encoded once, with the
+     * bytes shared by every player, instead of being encoded by each
+     * player's channel.
+     *
+     * @param encoded {@code true} to share encoded packets.
+     * @return {@code false} if encoding packets up front is not supported on
+     *         this server, otherwise {@code true}.
+     */
+    static boolean setEncoded(boolean encoded) {
+        if (encoded && !PacketHandler.isEncodingSupported()) {
+            return false;
+        }
+
+        PacketDispatcher.encoded = encoded;
+        return true;
+    }
+
+    /**
+     * Flushes every channel written to in direct mode since the last call.
+     * Packets written before this is called are always flushed by it, from
+     * whichever thread they were written.
+     */
+    static void flushWrites() {
+        Iterator<Object> iterator = unflushed.iterator();
+
+        while (iterator.hasNext()) {
+            Object channel = iterator.next();
+            iterator.remove();
+
+            try {
+                PacketHandler.flush(channel);
+            } catch (Exception exc) {
+                logger.log(Level.WARNING, "Failed to flush team packets", exc);
+            }
+        }
+    }
+
+    /**
+     * Sets the logger delivery failures are reported to.
+     *
+     * @param logger The logger to use.
+     */
+    static void setLogger(Logger logger) {
+        PacketDispatcher.logger = logger;
+    }
+
+    /**
+     * Sends the given packet to every given player.
+     *
+     * @param packet The packet to send.
+     * @param players The players to send it to.
+     */
+    static void broadcast(PacketHandler packet, Collection<? extends Player> players) {
+        long start = System.nanoTime();
+        ThreadPoolExecutor[] executors = workers;
+
+        if (executors == null) {
+            for (Player player : players) {
+                deliver(packet, player);
+            }
+
+            NametagMetrics.broadcast.record(System.nanoTime() - start);
+            return;
+        }
+
+        List<List<Player>> stripes = new ArrayList<>(executors.length);
+
+        for (int i = 0; i < executors.length; i++) {
+            stripes.add(new ArrayList<Player>());
+        }
+
+        for (Player player : players) {
+            stripes.get(stripe(player, executors.length)).add(player);
+        }
+
+        for (int i = 0; i < executors.length; i++) {
+            final List<Player> stripe = stripes.get(i);
+
+            if (stripe.isEmpty()) {
+                continue;
+            }
+
+            final PacketHandler shared = packet;
+
+            executors[i].execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (Player player : stripe) {
+                        deliver(shared, player);
+                    }
+                }
+
+            });
+        }
+
+        NametagMetrics.broadcast.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Sends the given packets to one player, in order.
+     *
+     * @param packets The packets to send.
+     * @param player The player to send them to.
+     */
+    static void send(final Collection<PacketHandler> packets, final Player player) {
+        ThreadPoolExecutor[] executors = workers;
+
+        if (executors == null) {
+            for (PacketHandler packet : packets) {
+                deliver(packet, player);
+            }
+
+            return;
+        }
+
+        executors[stripe(player, executors.length)].execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (PacketHandler packet : packets) {
+                    deliver(packet, player);
+                }
+            }
+
+        });
+    }
+
+    private static void deliver(PacketHandler packet, Player player) {
+        try {
+            if (!direct) {
+                packet.sendToPlayer(player);
+                return;
+            }
+
+            // The channel is only recorded after the write, so a flush that
+            // finds it is always queued behind the write.
+            Object channel = packet.writeToPlayer(player, encoded);
+
+            if (channel != null) {
+                unflushed.add(channel);
+            }
+        } catch (Exception exc) {
+            logger.log(Level.WARNING, "Failed to send packet for player (Packet209SetScoreboardTeam): " + player.getName(), exc);
+        }
+    }
+
+    private static int stripe(Player player, int stripes) {
+        return (player.getUniqueId().hashCode() & Integer.MAX_VALUE) % stripes;
+    }
+
+    /** Names worker threads so they can be told apart in thread dumps. */
+    private static final class WorkerFactory implements ThreadFactory {
+
+        private final int index;
+
+        private WorkerFactory(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "NametagAPI Packet Worker #" + index);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    /**
+     * Makes the caller wait for room in a full worker queue instead of
+     * dropping the delivery or running it out of order.
+     */
+    private static final class WaitPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                runnable.run();
+                return;
+            }
+
+            try {
+                executor.getQueue().put(runnable);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
\ No newline at end of file
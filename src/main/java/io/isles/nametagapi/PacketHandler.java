@@ -1,9 +1,14 @@
 package io.isles.nametagapi;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 import org.bukkit.Bukkit;
@@ -15,40 +20,111 @@ import org.bukkit.entity.Player;
  * Source: https://github.com/sgtcaze/NametagEdit/blob/master/src
  * /main/java/ca/wacos/nametagedit/PacketPlayOut.java
  * </p>
- * 
+ * <p>
+ * Every constructor, field and method this class needs is resolved once when
+ * the class is loaded and kept as a {@link MethodHandle}, so building and
+ * sending a packet does not perform any reflective lookups.
+ * </p>
+ * <p>
+ * Constructing a PacketHandler only records the packet's contents. The
+ * packet itself is built the first time it is sent, on whichever thread
+ * sends it, and reused for every later send.
+ * </p>
+ * <p>
+ * Packets can also be written straight to a player's network channel without
+ * flushing it, so that many packets reach the socket with a single flush.
+ * Those packets may also be encoded only once, with the bytes shared by
+ * every player whose connection uses the server's own protocol.
+ * </p>
+ *
  * @author sgtcaze (Original)
  * @author Hyphenical Technologies (Modifiers)
  */
 class PacketHandler {
 
-	private Object packet;
+	private final String name;
+	private final String prefix;
+	private final String suffix;
+	private final Collection<?> players;
+	private final int paramInt;
+	private volatile Object packet;
+	private volatile byte[] encoded;
 
-	private static Class<?> packetType;
+	private static final MethodHandle newPacket;
+	private static final MethodHandle getHandle;
+	private static final MethodHandle playerConnection;
+	private static final MethodHandle sendPacket;
+	private static final MethodHandle networkManager;
+	private static final MethodHandle channel;
+	private static final MethodHandle write;
+	private static final MethodHandle flush;
+	private static final MethodHandle pipeline;
+	private static final MethodHandle getPipelineHandler;
+	private static final MethodHandle packetId;
+	private static final MethodHandle writePacket;
+	private static final MethodHandle newSerializer;
+	private static final MethodHandle newBuffer;
+	private static final MethodHandle wrapBuffer;
+	private static final MethodHandle writeByte;
+	private static final MethodHandle readableBytes;
+	private static final MethodHandle readBytes;
+	private static final MethodHandle releaseBuffer;
+	private static final Class<?> encoderType;
 
-	private static Method getHandle;
-	private static Method sendPacket;
-	private static Field playerConnection;
+	private static final MethodHandle setPrefix;
+	private static final MethodHandle setSuffix;
+	private static final MethodHandle getPlayers;
+	private static final MethodHandle setTeamName;
+	private static final MethodHandle setParamInt;
+	private static final MethodHandle setPackOption;
+	private static final MethodHandle setDisplayName;
 
 	private static String version = "";
-	private static String fieldPrefix = "";
-	private static String fieldSuffix = "";
-	private static String fieldPlayers = "";
-	private static String fieldTeamName = "";
-	private static String fieldParamInt = "";
-	private static String fieldPackOption = "";
-	private static String fieldDisplayName = "";
 
 	static {
+		MethodHandle newPacketHandle = null;
+		MethodHandle getHandleHandle = null;
+		MethodHandle playerConnectionHandle = null;
+		MethodHandle sendPacketHandle = null;
+		MethodHandle networkManagerHandle = null;
+		MethodHandle channelHandle = null;
+		MethodHandle writeHandle = null;
+		MethodHandle flushHandle = null;
+		MethodHandle pipelineHandle = null;
+		MethodHandle getPipelineHandlerHandle = null;
+		MethodHandle packetIdHandle = null;
+		MethodHandle writePacketHandle = null;
+		MethodHandle newSerializerHandle = null;
+		MethodHandle newBufferHandle = null;
+		MethodHandle wrapBufferHandle = null;
+		MethodHandle writeByteHandle = null;
+		MethodHandle readableBytesHandle = null;
+		MethodHandle readBytesHandle = null;
+		MethodHandle releaseBufferHandle = null;
+		Class<?> encoderClass = null;
+		MethodHandle setPrefixHandle = null;
+		MethodHandle setSuffixHandle = null;
+		MethodHandle getPlayersHandle = null;
+		MethodHandle setTeamNameHandle = null;
+		MethodHandle setParamIntHandle = null;
+		MethodHandle setPackOptionHandle = null;
+		MethodHandle setDisplayNameHandle = null;
+
 		try {
 			version = Bukkit.getServer().getClass().getPackage().getName().split("\\.")[3];
 
 			Class<?> typeNMSPlayer = Class.forName("net.minecraft.server." + version + ".EntityPlayer");
 			Class<?> typeCraftPlayer = Class.forName("org.bukkit.craftbukkit." + version + ".entity.CraftPlayer");
 			Class<?> typePlayerConnection = Class.forName("net.minecraft.server." + version + ".PlayerConnection");
+			Class<?> typePacket = Class.forName("net.minecraft.server." + version + ".Packet");
 
-			getHandle = typeCraftPlayer.getMethod("getHandle");
-			playerConnection = typeNMSPlayer.getField("playerConnection");
-			sendPacket = typePlayerConnection.getMethod("sendPacket", Class.forName("net.minecraft.server." + version + ".Packet"));
+			String fieldPrefix;
+			String fieldSuffix;
+			String fieldPlayers;
+			String fieldTeamName;
+			String fieldParamInt;
+			String fieldPackOption;
+			String fieldDisplayName;
 
 			if (version.startsWith("v1_8")) {
 				fieldPrefix = "c";
@@ -80,74 +156,436 @@ class PacketHandler {
 
 			}
 
+			Class<?> packetType;
+
 			if (version.startsWith("v1_5")) {
 				packetType = Class.forName("net.minecraft.server." + version + ".Packet209SetScoreboardTeam");
 			}
 			else {
 				packetType = Class.forName("net.minecraft.server." + version + ".PacketPlayOutScoreboardTeam");
 			}
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+			Constructor<?> constructor = packetType.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			newPacketHandle = lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+
+			getHandleHandle = lookup.unreflect(typeCraftPlayer.getMethod("getHandle"))
+							.asType(MethodType.methodType(Object.class, Object.class));
+			playerConnectionHandle = lookup.unreflectGetter(typeNMSPlayer.getField("playerConnection"))
+							.asType(MethodType.methodType(Object.class, Object.class));
+			sendPacketHandle = lookup.unreflect(typePlayerConnection.getMethod("sendPacket", typePacket))
+							.asType(MethodType.methodType(void.class, Object.class, Object.class));
+
+			setPrefixHandle = setter(lookup, packetType, fieldPrefix, Object.class);
+			setSuffixHandle = setter(lookup, packetType, fieldSuffix, Object.class);
+			setTeamNameHandle = setter(lookup, packetType, fieldTeamName, Object.class);
+			setParamIntHandle = setter(lookup, packetType, fieldParamInt, int.class);
+			setPackOptionHandle = setter(lookup, packetType, fieldPackOption, int.class);
+			setDisplayNameHandle = setter(lookup, packetType, fieldDisplayName, Object.class);
+
+			Field players = packetType.getDeclaredField(fieldPlayers);
+			players.setAccessible(true);
+			getPlayersHandle = lookup.unreflectGetter(players).asType(MethodType.methodType(Collection.class, Object.class));
+
+			try {
+				Class<?> typeNetworkManager = Class.forName("net.minecraft.server." + version + ".NetworkManager");
+				Class<?> typeChannel = nettyClass("channel.Channel");
+
+				networkManagerHandle = lookup.unreflectGetter(field(typePlayerConnection, typeNetworkManager))
+								.asType(MethodType.methodType(Object.class, Object.class));
+				channelHandle = lookup.unreflectGetter(field(typeNetworkManager, typeChannel))
+								.asType(MethodType.methodType(Object.class, Object.class));
+				writeHandle = lookup.unreflect(typeChannel.getMethod("write", Object.class))
+								.asType(MethodType.methodType(void.class, Object.class, Object.class));
+				flushHandle = lookup.unreflect(typeChannel.getMethod("flush"))
+								.asType(MethodType.methodType(void.class, Object.class));
+
+				try {
+					Class<?> typePipeline = nettyClass("channel.ChannelPipeline");
+					Class<?> typeByteBuf = nettyClass("buffer.ByteBuf");
+					Class<?> typeUnpooled = nettyClass("buffer.Unpooled");
+					Class<?> typeSerializer = Class.forName("net.minecraft.server." + version + ".PacketDataSerializer");
+					Class<?> typeProtocol = Class.forName("net.minecraft.server." + version + ".EnumProtocol");
+					Class<?> typeDirection = Class.forName("net.minecraft.server." + version + ".EnumProtocolDirection");
+
+					encoderClass = Class.forName("net.minecraft.server." + version + ".PacketEncoder");
+					pipelineHandle = lookup.unreflect(typeChannel.getMethod("pipeline"))
+									.asType(MethodType.methodType(Object.class, Object.class));
+					getPipelineHandlerHandle = lookup.unreflect(typePipeline.getMethod("get", String.class))
+									.asType(MethodType.methodType(Object.class, Object.class, String.class));
+
+					MethodHandle protocolId = lookup.unreflect(method(typeProtocol, Integer.class, typeDirection, typePacket));
+					packetIdHandle = MethodHandles.insertArguments(protocolId, 0, typeProtocol.getField("PLAY").get(null), typeDirection.getField("CLIENTBOUND").get(null))
+									.asType(MethodType.methodType(Object.class, Object.class));
+					writePacketHandle = lookup.unreflect(typePacket.getMethod("b", typeSerializer))
+									.asType(MethodType.methodType(void.class, Object.class, Object.class));
+					newSerializerHandle = lookup.unreflectConstructor(typeSerializer.getConstructor(typeByteBuf))
+									.asType(MethodType.methodType(Object.class, Object.class));
+
+					newBufferHandle = lookup.unreflect(typeUnpooled.getMethod("buffer"))
+									.asType(MethodType.methodType(Object.class));
+					wrapBufferHandle = lookup.unreflect(typeUnpooled.getMethod("wrappedBuffer", byte[].class))
+									.asType(MethodType.methodType(Object.class, byte[].class));
+					writeByteHandle = lookup.unreflect(typeByteBuf.getMethod("writeByte", int.class))
+									.asType(MethodType.methodType(void.class, Object.class, int.class));
+					readableBytesHandle = lookup.unreflect(typeByteBuf.getMethod("readableBytes"))
+									.asType(MethodType.methodType(int.class, Object.class));
+					readBytesHandle = lookup.unreflect(typeByteBuf.getMethod("readBytes", byte[].class))
+									.asType(MethodType.methodType(void.class, Object.class, byte[].class));
+					releaseBufferHandle = lookup.unreflect(typeByteBuf.getMethod("release"))
+									.asType(MethodType.methodType(void.class, Object.class));
+				}
+				catch (ReflectiveOperationException e) {
+					// Packets are not encoded up front, every channel encodes its own.
+					newBufferHandle = null;
+				}
+			}
+			catch (ReflectiveOperationException e) {
+				// Direct writes are not supported, packets always go through the connection.
+				networkManagerHandle = null;
+				channelHandle = null;
+				writeHandle = null;
+				flushHandle = null;
+			}
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+
+		newPacket = newPacketHandle;
+		getHandle = getHandleHandle;
+		playerConnection = playerConnectionHandle;
+		sendPacket = sendPacketHandle;
+		networkManager = networkManagerHandle;
+		channel = channelHandle;
+		write = writeHandle;
+		flush = flushHandle;
+		pipeline = pipelineHandle;
+		getPipelineHandler = getPipelineHandlerHandle;
+		packetId = packetIdHandle;
+		writePacket = writePacketHandle;
+		newSerializer = newSerializerHandle;
+		newBuffer = newBufferHandle;
+		wrapBuffer = wrapBufferHandle;
+		writeByte = writeByteHandle;
+		readableBytes = readableBytesHandle;
+		readBytes = readBytesHandle;
+		releaseBuffer = releaseBufferHandle;
+		encoderType = encoderClass;
+		setPrefix = setPrefixHandle;
+		setSuffix = setSuffixHandle;
+		getPlayers = getPlayersHandle;
+		setTeamName = setTeamNameHandle;
+		setParamInt = setParamIntHandle;
+		setPackOption = setPackOptionHandle;
+		setDisplayName = setDisplayNameHandle;
 	}
 
-	public PacketHandler(String name, String prefix, String suffix, Collection<?> players, int paramInteger) throws ClassNotFoundException,
-					IllegalAccessException, InstantiationException, NoSuchMethodException, NoSuchFieldException, InvocationTargetException {
+	public PacketHandler(String name, String prefix, String suffix, Collection<?> players, int paramInteger) {
+		this.name = name;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.players = paramInteger == 0 && players != null ? new ArrayList<Object>(players) : new ArrayList<Object>();
+		this.paramInt = paramInteger;
+	}
 
-		packet = packetType.newInstance();
-		setField(fieldTeamName, name);
-		setField(fieldParamInt, paramInteger);
+	public PacketHandler(String name, Collection<?> players, int paramInt) {
+		if (paramInt != 3 && paramInt != 4) {
+			throw new IllegalArgumentException(
+							"Method must be join or leave for player constructor");
+		}
 
-		if (paramInteger == 0 || paramInteger == 2) {
-			setField(fieldDisplayName, name);
-			setField(fieldPrefix, prefix);
-			setField(fieldSuffix, suffix);
-			setField(fieldPackOption, 1);
+		this.name = name;
+		this.prefix = null;
+		this.suffix = null;
+		this.players = players != null ? new ArrayList<Object>(players) : new ArrayList<Object>();
+		this.paramInt = paramInt;
+	}
+
+	public void sendToPlayer(Player bukkitPlayer) throws ReflectiveOperationException {
+		Object packet = getPacket();
+
+		try {
+			Object player = getHandle.invokeExact((Object) bukkitPlayer);
+
+			Object connection = playerConnection.invokeExact(player);
+
+			sendPacket.invokeExact(connection, packet);
+			NametagMetrics.packetSent(paramInt);
+		}
+		catch (Throwable t) {
+			throw propagate(t);
+		}
+	}
+
+	/**
+	 * Writes this packet straight to the given player's network channel
+	 * without flushing it. If the player has no channel, the packet is sent
+	 * through their connection instead.
+	 *
+	 * <br>
+	 * <br>
+	 *
+	 * If encoding is requested, the packet is encoded the first time and the
+	 * same bytes are written to every channel that uses the server's own
+	 * packet encoder. Channels with a different encoder, such as those of
+	 * players on another protocol version, still receive the packet itself.
+	 *
+	 * @param bukkitPlayer The player to write the packet to.
+	 * @param encode Whether to write the encoded packet where possible.
+	 * @return The channel that was written to and must be flushed with
+	 *         {@link #flush(Object)}, or {@code null} if the packet was sent
+	 *         through the connection.
+	 * @throws ReflectiveOperationException If the packet could not be sent.
+	 */
+	public Object writeToPlayer(Player bukkitPlayer, boolean encode) throws ReflectiveOperationException {
+		if (write == null) {
+			sendToPlayer(bukkitPlayer);
+			return null;
 		}
 
-		if (paramInteger == 0) {
-			addAll(players);
+		Object packet = getPacket();
+
+		try {
+			Object player = getHandle.invokeExact((Object) bukkitPlayer);
+
+			Object connection = playerConnection.invokeExact(player);
+
+			Object target = getChannel(connection);
+
+			if (target == null) {
+				sendPacket.invokeExact(connection, packet);
+			}
+			else {
+				Object message = packet;
+
+				if (encode && newBuffer != null && isNativeEncoder(target)) {
+					message = wrapBuffer.invokeExact(getEncoded(packet));
+				}
+
+				write.invokeExact(target, message);
+			}
+
+			NametagMetrics.packetSent(paramInt);
+			return target;
+		}
+		catch (Throwable t) {
+			throw propagate(t);
 		}
 	}
 
-	public PacketHandler(String name, Collection<?> players, int paramInt) throws ClassNotFoundException, IllegalAccessException, InstantiationException,
-					NoSuchMethodException, NoSuchFieldException, InvocationTargetException {
-		packet = packetType.newInstance();
+	/**
+	 * Returns whether packets can be written straight to players' channels on
+	 * this server.
+	 *
+	 * @return {@code true} if {@link #writeToPlayer(Player, boolean)} writes
+	 *         to the channel, {@code false} if it always uses the connection.
+	 */
+	public static boolean isDirectSupported() {
+		return write != null;
+	}
 
-		if (paramInt != 3 && paramInt != 4) {
-			throw new IllegalArgumentException(
-							"Method must be join or leave for player constructor");
+	/**
+	 * Returns whether packets can be encoded once and shared between
+	 * players' channels on this server.
+	 *
+	 * @return {@code true} if {@link #writeToPlayer(Player, boolean)} can
+	 *         write encoded packets.
+	 */
+	public static boolean isEncodingSupported() {
+		return newBuffer != null;
+	}
+
+	/**
+	 * Flushes the packets written to a channel by
+	 * {@link #writeToPlayer(Player, boolean)}.
+	 *
+	 * @param target The channel to flush.
+	 * @throws ReflectiveOperationException If the channel could not be
+	 *             flushed.
+	 */
+	public static void flush(Object target) throws ReflectiveOperationException {
+		try {
+			flush.invokeExact(target);
 		}
+		catch (Throwable t) {
+			throw propagate(t);
+		}
+	}
+
+	private static Object getChannel(Object connection) throws Throwable {
+		if (connection == null) {
+			return null;
+		}
+
+		Object manager = networkManager.invokeExact(connection);
 
-		if (players == null || players.isEmpty()) {
-			players = new ArrayList<String>();
+		if (manager == null) {
+			return null;
 		}
 
-		setField(fieldTeamName, name);
-		setField(fieldParamInt, paramInt);
-		addAll(players);
+		return channel.invokeExact(manager);
 	}
 
-	public void sendToPlayer(Player bukkitPlayer) throws ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException,
-					NoSuchMethodException, NoSuchFieldException {
-		Object player = getHandle.invoke(bukkitPlayer);
+	private static boolean isNativeEncoder(Object target) throws Throwable {
+		Object handlers = pipeline.invokeExact(target);
 
-		Object connection = playerConnection.get(player);
+		Object encoder = getPipelineHandler.invokeExact(handlers, "encoder");
+		return encoder != null && encoder.getClass() == encoderType;
+	}
+
+	private byte[] getEncoded(Object packet) throws Throwable {
+		byte[] result = encoded;
+
+		if (result == null) {
+			synchronized (this) {
+				result = encoded;
+
+				if (result == null) {
+					result = encode(packet);
+					encoded = result;
+				}
+			}
+		}
 
-		sendPacket.invoke(connection, packet);
+		return result;
 	}
 
-	private void setField(String field, Object value) throws NoSuchFieldException, IllegalAccessException {
-		Field f = packet.getClass().getDeclaredField(field);
-		f.setAccessible(true);
-		f.set(packet, value);
+	/**
+	 * Encodes a packet the way the server's packet encoder does: its id as a
+	 * VarInt, followed by its contents. Framing and compression are still
+	 * applied by each channel.
+	 */
+	private static byte[] encode(Object packet) throws Throwable {
+		Object buffer = newBuffer.invokeExact();
+
+		try {
+			Object id = packetId.invokeExact(packet);
+			int value = (Integer) id;
+
+			while ((value & ~0x7F) != 0) {
+				writeByte.invokeExact(buffer, value & 0x7F | 0x80);
+				value >>>= 7;
+			}
+
+			writeByte.invokeExact(buffer, value);
+
+			Object serializer = newSerializer.invokeExact(buffer);
+
+			writePacket.invokeExact(packet, serializer);
+
+			byte[] bytes = new byte[(int) readableBytes.invokeExact(buffer)];
+			readBytes.invokeExact(buffer, bytes);
+			return bytes;
+		}
+		finally {
+			releaseBuffer.invokeExact(buffer);
+		}
+	}
+
+	private Object getPacket() throws ReflectiveOperationException {
+		Object result = packet;
+
+		if (result == null) {
+			synchronized (this) {
+				result = packet;
+
+				if (result == null) {
+					result = build();
+					packet = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private Object build() throws ReflectiveOperationException {
+		long start = System.nanoTime();
+
+		try {
+			Object packet = newPacket.invokeExact();
+			setTeamName.invokeExact(packet, (Object) name);
+			setParamInt.invokeExact(packet, paramInt);
+
+			if (paramInt == 0 || paramInt == 2) {
+				setDisplayName.invokeExact(packet, (Object) name);
+				setPrefix.invokeExact(packet, (Object) prefix);
+				setSuffix.invokeExact(packet, (Object) suffix);
+				setPackOption.invokeExact(packet, 1);
+			}
+
+			if (!players.isEmpty()) {
+				addAll(packet, players);
+			}
+
+			NametagMetrics.packetBuilt(paramInt);
+			NametagMetrics.build.record(System.nanoTime() - start);
+			return packet;
+		}
+		catch (Throwable t) {
+			throw propagate(t);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addAll(Object packet, Collection<?> col) throws Throwable {
+		((Collection<Object>) getPlayers.invokeExact(packet)).addAll(col);
 	}
 
-	@SuppressWarnings("all")
-	private void addAll(Collection<?> col) throws NoSuchFieldException, IllegalAccessException {
-		Field f = packet.getClass().getDeclaredField(fieldPlayers);
+	private static MethodHandle setter(MethodHandles.Lookup lookup, Class<?> type, String field, Class<?> valueType) throws ReflectiveOperationException {
+		Field f = type.getDeclaredField(field);
 		f.setAccessible(true);
-		((Collection) f.get(packet)).addAll(col);
+		return lookup.unreflectSetter(f).asType(MethodType.methodType(void.class, Object.class, valueType));
+	}
+
+	private static Field field(Class<?> type, Class<?> valueType) throws NoSuchFieldException {
+		for (Field f : type.getDeclaredFields()) {
+			if (valueType.isAssignableFrom(f.getType())) {
+				f.setAccessible(true);
+				return f;
+			}
+		}
+
+		throw new NoSuchFieldException(valueType.getName() + " in " + type.getName());
+	}
+
+	private static Method method(Class<?> type, Class<?> returnType, Class<?>... parameterTypes) throws NoSuchMethodException {
+		for (Method m : type.getDeclaredMethods()) {
+			if (m.getReturnType() == returnType && Arrays.equals(m.getParameterTypes(), parameterTypes)) {
+				m.setAccessible(true);
+				return m;
+			}
+		}
+
+		throw new NoSuchMethodException(returnType.getName() + " " + type.getName() + Arrays.toString(parameterTypes));
+	}
+
+	private static Class<?> nettyClass(String name) throws ClassNotFoundException {
+		try {
+			return Class.forName("io.netty." + name);
+		}
+		catch (ClassNotFoundException e) {
+			// 1.7 servers relocate Netty.
+			return Class.forName("net.minecraft.util.io.netty." + name);
+		}
+	}
+
+	private static ReflectiveOperationException propagate(Throwable t) {
+		if (t instanceof ReflectiveOperationException) {
+			return (ReflectiveOperationException) t;
+		}
+
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+
+		return new InvocationTargetException(t);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package io.isles.nametagapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+
+/**
+ * Sends nametag changes to the other servers behind a BungeeCord proxy, using
+ * its "Forward" plugin message. Plugin messages travel through a player's
+ * connection, so changes made while nobody is online are not sent.
+ */
+final class PluginMessageTransport implements ReplicationTransport, PluginMessageListener {
+
+    private static final String CHANNEL = "BungeeCord";
+    private static final String SUBCHANNEL = "NametagAPI";
+
+    private final Plugin plugin;
+    private volatile Receiver receiver;
+
+    /**
+     * Constructs a new PluginMessageTransport.
+     *
+     * @param plugin The plugin to register the channel for.
+     */
+    PluginMessageTransport(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        Bukkit.getMessenger().registerOutgoingPluginChannel(plugin, CHANNEL);
+        Bukkit.getMessenger().registerIncomingPluginChannel(plugin, CHANNEL, this);
+    }
+
+    @Override
+    public void publish(byte[] message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeUTF("Forward");
+            out.writeUTF("ALL");
+            out.writeUTF(SUBCHANNEL);
+            out.writeShort(message.length);
+            out.write(message);
+        } catch (IOException exc) {
+            throw new IllegalStateException(exc);
+        }
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            player.sendPluginMessage(plugin, CHANNEL, bytes.toByteArray());
+            return;
+        }
+
+        plugin.getLogger().log(Level.FINE, "Dropped nametag changes, no player online to send them through");
+    }
+
+    @Override
+    public void stop() {
+        receiver = null;
+        Bukkit.getMessenger().unregisterIncomingPluginChannel(plugin, CHANNEL);
+        Bukkit.getMessenger().unregisterOutgoingPluginChannel(plugin, CHANNEL);
+    }
+
+    @Override
+    public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+        Receiver receiver = this.receiver;
+
+        if (receiver == null || !CHANNEL.equals(channel)) {
+            return;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+
+            if (!SUBCHANNEL.equals(in.readUTF())) {
+                return;
+            }
+
+            byte[] data = new byte[in.readUnsignedShort()];
+            in.readFully(data);
+            receiver.receive(data);
+        } catch (IOException exc) {
+            plugin.getLogger().log(Level.WARNING, "Received malformed plugin message on " + CHANNEL, exc);
+        }
+    }
+
+}
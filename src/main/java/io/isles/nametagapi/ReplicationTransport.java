@@ -0,0 +1,50 @@
+package io.isles.nametagapi;
+
+/**
+ * Carries nametag changes between servers. NametagAPI publishes the changes
+ * made on this server through a transport and applies the changes received
+ * from it, so tags only have to be worked out on one server.
+ *
+ * <br>
+ * <br>
+ *
+ * Messages are opaque byte arrays. A transport does not need to keep them in
+ * order across servers, but must deliver each message whole. Messages may
+ * be handed to the receiver on any thread.
+ *
+ * @author Hyphenical Technologies
+ */
+public interface ReplicationTransport {
+
+    /**
+     * Starts delivering messages published by other servers.
+     *
+     * @param receiver Called with every message received.
+     */
+    void start(Receiver receiver);
+
+    /**
+     * Sends a message to every other server.
+     *
+     * @param message The message to send.
+     */
+    void publish(byte[] message);
+
+    /**
+     * Stops delivering messages.
+     */
+    void stop();
+
+    /** Handles messages received through a transport. */
+    interface Receiver {
+
+        /**
+         * Handles a message published by another server.
+         *
+         * @param message The message.
+         */
+        void receive(byte[] message);
+
+    }
+
+}
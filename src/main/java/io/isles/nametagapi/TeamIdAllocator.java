@@ -0,0 +1,74 @@
+package io.isles.nametagapi;
+
+import java.util.BitSet;
+
+/**
+ * Hands out the numbers used to name managed teams. The lowest number that is
+ * not in use is always returned, so team names stay short and numbers from
+ * removed teams are recycled.
+ */
+final class TeamIdAllocator {
+
+    private final BitSet used = new BitSet();
+    /** Every number below this one is known to be in use. */
+    private int lowestFree;
+
+    /**
+     * Allocates the lowest number that is not in use.
+     *
+     * @return The allocated number.
+     */
+    int allocate() {
+        int id = used.nextClearBit(lowestFree);
+        used.set(id);
+        lowestFree = id + 1;
+        return id;
+    }
+
+    /**
+     * Marks the given number as in use, for teams that already exist.
+     *
+     * @param id The number to reserve.
+     * @return {@code true} if the number was free, otherwise {@code false}.
+     */
+    boolean reserve(int id) {
+        if (id < 0 || used.get(id)) {
+            return false;
+        }
+
+        used.set(id);
+
+        if (id == lowestFree) {
+            lowestFree = used.nextClearBit(id);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the given number so it can be handed out again.
+     *
+     * @param id The number to release.
+     */
+    void release(int id) {
+        if (id < 0 || !used.get(id)) {
+            return;
+        }
+
+        used.clear(id);
+
+        if (id < lowestFree) {
+            lowestFree = id;
+        }
+    }
+
+    /**
+     * Returns how many numbers are currently in use.
+     *
+     * @return The number of allocated ids.
+     */
+    int size() {
+        return used.cardinality();
+    }
+
+}
\ No newline at end of file
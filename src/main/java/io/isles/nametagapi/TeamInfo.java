@@ -2,36 +2,169 @@ package io.isles.nametagapi;
 
 /**
  * Represents a scoreboard team, used in the NametagManager
- * object.
+ * object. Only a team's number and name are fixed. Its prefix and suffix
+ * change when the team is updated in place, which NametagManager does when
+ * all of its members change to the same new tag. Each team counts the
+ * references held on it so it can be removed as soon as nothing uses it
+ * anymore. The tag may be read from any thread, but it and the reference
+ * count are only changed while holding NametagManager's state lock. Code
+ * that needs both the prefix and the suffix should read {@link #getKey()}
+ * once, as the tag may be replaced between two separate reads.
+ *
+ * <br>
+ * <br>
+ *
+ * Teams are equal if their names are, and numbers are handed out again once
+ * a team is removed. A removed team is therefore equal to a later team with
+ * the same number, so code holding on to teams across changes must compare
+ * them by identity.
  */
-class TeamInfo {
+final class TeamInfo {
 
-    private String name;
-    private String prefix;
-    private String suffix;
+    private final int id;
+    private final String name;
+    private volatile Key key;
+    private int references;
 
-    TeamInfo(String name) {
+    TeamInfo(int id, String name, String prefix, String suffix) {
+        this.id = id;
         this.name = name;
-    }
-
-    void setPrefix(String prefix) {
-        this.prefix = prefix;
-    }
-
-    void setSuffix(String suffix) {
-        this.suffix = suffix;
+        this.key = new Key(prefix, suffix);
     }
 
     String getPrefix() {
-        return prefix;
+        return key.prefix;
     }
 
     String getSuffix() {
-        return suffix;
+        return key.suffix;
     }
 
     String getName() {
         return name;
     }
 
+    /**
+     * Returns the number this team's name was allocated from.
+     *
+     * @return The team's id.
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the prefix and suffix pair this team was declared for.
+     *
+     * @return The team's tag key.
+     */
+    Key getKey() {
+        return key;
+    }
+
+    /**
+     * Changes the prefix and suffix this team displays.
+     *
+     * @param key The new tag key.
+     */
+    void setKey(Key key) {
+        this.key = key;
+    }
+
+    /**
+     * Adds a reference to this team.
+     *
+     * @return The number of references after adding this one.
+     */
+    int retain() {
+        return ++references;
+    }
+
+    /**
+     * Drops a reference to this team.
+     *
+     * @return The number of references left.
+     */
+    int release() {
+        return --references;
+    }
+
+    /**
+     * Returns the number of references currently held on this team.
+     *
+     * @return The reference count.
+     */
+    int getReferences() {
+        return references;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof TeamInfo)) {
+            return false;
+        }
+
+        return name.equals(((TeamInfo) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        Key key = this.key;
+        return "TeamInfo{name=" + name + ", prefix=" + key.prefix + ", suffix=" + key.suffix + "}";
+    }
+
+    /**
+     * A (prefix, suffix) value pair, used to look up the team that displays
+     * a given tag.
+     */
+    static final class Key {
+
+        private final String prefix;
+        private final String suffix;
+        private final int hash;
+
+        Key(String prefix, String suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.hash = 31 * prefix.hashCode() + suffix.hashCode();
+        }
+
+        String getPrefix() {
+            return prefix;
+        }
+
+        String getSuffix() {
+            return suffix;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return hash == other.hash && prefix.equals(other.prefix) && suffix.equals(other.suffix);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,243 @@
+package io.isles.nametagapi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the nametags particular viewers see in place of the global
+ * ones. Only viewers that see something different hold any state here, so
+ * every other viewer shares the global teams in NametagManager.
+ *
+ * <br>
+ * <br>
+ *
+ * The overlay is only changed while holding NametagManager's state lock.
+ * Looking up what a viewer sees is safe from any thread.
+ */
+final class ViewerOverlay {
+
+    /** The tags each viewer sees, by the lower-case name of the player they belong to. */
+    private final Map<UUID, Map<String, Tag>> viewers = new ConcurrentHashMap<>();
+    /** The viewers seeing a tag of their own for each player. */
+    private final Map<String, Set<UUID>> targets = new HashMap<>();
+    /** How many tags show each team, compared by identity as team numbers are reused. */
+    private final Map<TeamInfo, Integer> teams = new IdentityHashMap<>();
+
+    /**
+     * Returns the tag the given viewer sees for a player, if it differs from
+     * the global one.
+     *
+     * @param viewer The viewer's unique id.
+     * @param id The player's name in lower case.
+     * @return The tag, or {@code null} if the viewer sees the global tag.
+     */
+    Tag get(UUID viewer, String id) {
+        Map<String, Tag> tags = viewers.get(viewer);
+        return tags != null ? tags.get(id) : null;
+    }
+
+    /**
+     * Sets the tag the given viewer sees for a player.
+     *
+     * @param viewer The viewer's unique id.
+     * @param id The player's name in lower case.
+     * @param tag The tag to show.
+     * @return The tag the viewer saw before, or {@code null} if it was the
+     *         global one.
+     */
+    Tag put(UUID viewer, String id, Tag tag) {
+        Map<String, Tag> tags = viewers.get(viewer);
+
+        if (tags == null) {
+            tags = new ConcurrentHashMap<>();
+            viewers.put(viewer, tags);
+        }
+
+        Set<UUID> overriding = targets.get(id);
+
+        if (overriding == null) {
+            overriding = new HashSet<>();
+            targets.put(id, overriding);
+        }
+
+        overriding.add(viewer);
+        Tag previous = tags.put(id, tag);
+        count(tag, 1);
+        count(previous, -1);
+        return previous;
+    }
+
+    /**
+     * Makes the given viewer see the global tag of a player again.
+     *
+     * @param viewer The viewer's unique id.
+     * @param id The player's name in lower case.
+     * @return The tag the viewer saw before, or {@code null} if it was
+     *         already the global one.
+     */
+    Tag remove(UUID viewer, String id) {
+        Map<String, Tag> tags = viewers.get(viewer);
+
+        if (tags == null) {
+            return null;
+        }
+
+        Tag tag = tags.remove(id);
+
+        if (tags.isEmpty()) {
+            viewers.remove(viewer);
+        }
+
+        if (tag != null) {
+            untarget(viewer, id);
+            count(tag, -1);
+        }
+
+        return tag;
+    }
+
+    /**
+     * Forgets every tag of the given viewer.
+     *
+     * @param viewer The viewer's unique id.
+     * @return The viewer's tags by player, which is empty if they had none.
+     */
+    Map<String, Tag> removeViewer(UUID viewer) {
+        Map<String, Tag> tags = viewers.remove(viewer);
+
+        if (tags == null) {
+            return Collections.emptyMap();
+        }
+
+        for (Map.Entry<String, Tag> tag : tags.entrySet()) {
+            untarget(viewer, tag.getKey());
+            count(tag.getValue(), -1);
+        }
+
+        return tags;
+    }
+
+    /**
+     * Returns the viewers that see a tag of their own for the given player.
+     *
+     * @param id The player's name in lower case.
+     * @return The viewers' unique ids.
+     */
+    Set<UUID> viewersOf(String id) {
+        Set<UUID> overriding = targets.get(id);
+        return overriding != null ? overriding : Collections.<UUID> emptySet();
+    }
+
+    /**
+     * Returns a copy of the tags the given viewer sees.
+     *
+     * @param viewer The viewer's unique id.
+     * @return The viewer's tags by player, which is empty if they have none.
+     */
+    Map<String, Tag> tagsOf(UUID viewer) {
+        Map<String, Tag> tags = viewers.get(viewer);
+        return tags != null ? new HashMap<>(tags) : Collections.<String, Tag> emptyMap();
+    }
+
+    /**
+     * Returns the viewers that see a tag other than the global one.
+     *
+     * @return A copy of the viewers' unique ids.
+     */
+    Set<UUID> getViewers() {
+        return new HashSet<>(viewers.keySet());
+    }
+
+    /**
+     * Returns how many players the given viewer sees a tag of their own for.
+     *
+     * @param viewer The viewer's unique id.
+     * @return The number of tags.
+     */
+    int size(UUID viewer) {
+        Map<String, Tag> tags = viewers.get(viewer);
+        return tags != null ? tags.size() : 0;
+    }
+
+    /**
+     * Returns whether any viewer is shown a player in the given team.
+     *
+     * @param team The team.
+     * @return {@code true} if a tag of this overlay shows the team.
+     */
+    boolean shows(TeamInfo team) {
+        return teams.containsKey(team);
+    }
+
+    /**
+     * Returns whether any viewer sees a tag other than the global one.
+     *
+     * @return {@code true} if the overlay is empty.
+     */
+    boolean isEmpty() {
+        return targets.isEmpty();
+    }
+
+    /**
+     * Forgets every tag of every viewer.
+     */
+    void clear() {
+        viewers.clear();
+        targets.clear();
+        teams.clear();
+    }
+
+    private void count(Tag tag, int change) {
+        if (tag == null || tag.team == null) {
+            return;
+        }
+
+        Integer count = teams.get(tag.team);
+        int updated = (count != null ? count : 0) + change;
+
+        if (updated > 0) {
+            teams.put(tag.team, updated);
+        } else {
+            teams.remove(tag.team);
+        }
+    }
+
+    private void untarget(UUID viewer, String id) {
+        Set<UUID> overriding = targets.get(id);
+
+        if (overriding != null && overriding.remove(viewer) && overriding.isEmpty()) {
+            targets.remove(id);
+        }
+    }
+
+    /**
+     * A team one viewer sees a player in, with the name it was sent with. The
+     * team is {@code null} if the viewer sees the player in no team.
+     */
+    static final class Tag {
+
+        private final TeamInfo team;
+        private final String name;
+
+        Tag(TeamInfo team, String name) {
+            this.team = team;
+            this.name = name;
+        }
+
+        TeamInfo getTeam() {
+            return team;
+        }
+
+        String getName() {
+            return name;
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+
+/**
+ * Tests that the batch event carries the final nametag of every local change
+ * in a tick, and that changes it cancels fall back to what they would have
+ * been without them.
+ */
+public class BatchChangeEventTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private final List<NametagBatchChangeEvent> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        NametagManager.load(FakeServer.getPlugin(), new ArrayList<NametagStore.Team>(), new ArrayList<Nametag>());
+        FakeServer.listen(NametagBatchChangeEvent.getHandlerList(), new EventExecutor() {
+
+            @Override
+            public void execute(Listener listener, Event event) {
+                NametagBatchChangeEvent batch = (NametagBatchChangeEvent) event;
+                events.add(batch);
+
+                for (NametagBatchChangeEvent.Change change : batch.getChanges()) {
+                    if (change.getPlayerName().equals("Bob")) {
+                        change.setCancelled(true);
+                    } else if (change.getPlayerName().equals("Carol")) {
+                        change.setSuffix("*");
+                    }
+                }
+            }
+
+        });
+    }
+
+    @Test
+    public void oneEventCarriesTheFinalNametagOfEachPlayer() {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagAPI.setNametagHard("Alice", "[B]", "");
+        NametagAPI.resetNametag("Dave");
+        FakeServer.tick();
+
+        assertEquals(1, events.size());
+        List<NametagBatchChangeEvent.Change> changes = events.get(0).getChanges();
+        assertEquals(2, changes.size());
+        assertEquals("Alice", changes.get(0).getPlayerName());
+        assertEquals("[B]", changes.get(0).getPrefix());
+        assertTrue(changes.get(1).isReset());
+    }
+
+    @Test
+    public void changesCanBeModifiedAndCancelled() throws Exception {
+        NametagAPI.setNametagHard("Carol", "[C]", "");
+        CompletableFuture<Boolean> result = NametagAPI.setNametagNow("Bob", "[B]", "", NametagChangeType.HARD);
+
+        assertFalse(result.get());
+        assertFalse(NametagAPI.hasCustomNametag("Bob"));
+        assertEquals("[C]", NametagAPI.getPrefix("Carol"));
+        assertEquals("*", NametagAPI.getSuffix("Carol"));
+    }
+
+    @Test
+    public void cancelledChangesFallBackToTheReceivedNametag() {
+        NametagManager.enqueueRemote(Collections.singletonMap("Bob", new TeamInfo.Key("[R]", "")));
+        NametagAPI.setNametagHard("Bob", "[B]", "");
+        FakeServer.tick();
+
+        assertEquals(1, events.size());
+        assertEquals("[R]", events.get(0).getChanges().get(0).getCurrentPrefix());
+        assertEquals("[R]", NametagAPI.getPrefix("Bob"));
+    }
+
+    @Test
+    public void receivedChangesAreNotPartOfTheEvent() {
+        NametagManager.enqueueRemote(Collections.singletonMap("Alice", new TeamInfo.Key("[R]", "")));
+        FakeServer.tick();
+
+        assertTrue(events.isEmpty());
+        assertEquals("[R]", NametagAPI.getPrefix("Alice"));
+    }
+
+}
@@ -0,0 +1,168 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests that membership changes only reach interested viewers, that viewers
+ * are synced once players come into interest, and that viewers left with the
+ * same members share a packet.
+ */
+public class InterestTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private Player alice;
+    private Player bob;
+    private Player carol;
+
+    @Before
+    public void setUp() {
+        alice = FakeServer.join("Alice");
+        bob = FakeServer.join("Bob");
+        carol = FakeServer.join("Carol");
+    }
+
+    @Test
+    public void worldModeSkipsViewersInOtherWorlds() {
+        NametagManager.setInterest(InterestMode.WORLD, 0);
+        FakeServer.teleport(carol, "nether", 0, 0, 0);
+
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+
+        assertEquals(Collections.singletonList("Alice"), getJoined(bob));
+        assertTrue(getJoined(carol).isEmpty());
+    }
+
+    @Test
+    public void viewersAreSyncedWhenChangingWorlds() {
+        NametagManager.setInterest(InterestMode.WORLD, 0);
+        FakeServer.teleport(carol, "nether", 0, 0, 0);
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        FakeServer.takePackets(carol);
+
+        FakeServer.teleport(carol, "world", 0, 0, 0);
+        NametagManager.refreshInterest(carol);
+
+        assertEquals(Collections.singletonList("Alice"), getJoined(carol));
+
+        NametagManager.refreshInterest(carol);
+
+        assertTrue(getJoined(carol).isEmpty());
+    }
+
+    @Test
+    public void radiusModeSyncsViewersComingIntoRange() {
+        NametagManager.setInterest(InterestMode.RADIUS, 10);
+        FakeServer.teleport(bob, "world", 5, 0, 0);
+        FakeServer.teleport(carol, "world", 50, 0, 0);
+
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+
+        assertEquals(Collections.singletonList("Alice"), getJoined(bob));
+        assertTrue(getJoined(carol).isEmpty());
+
+        FakeServer.teleport(carol, "world", 0, 0, 8);
+        NametagManager.refreshInterest();
+
+        assertEquals(Collections.singletonList("Alice"), getJoined(carol));
+    }
+
+    @Test
+    public void viewersMissingTooManyChangesAreSentThemAll() {
+        NametagManager.setMissedLimit(1);
+        NametagManager.setInterest(InterestMode.RADIUS, 10);
+        FakeServer.teleport(carol, "world", 50, 0, 0);
+
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+
+        assertTrue(getJoined(carol).isEmpty());
+
+        NametagAPI.setNametagHard("Bob", "[B]", "");
+
+        assertEquals(new HashSet<>(Arrays.asList("Alice", "Bob")), new HashSet<>(getJoined(carol)));
+
+        NametagManager.refreshInterest();
+
+        assertTrue(getJoined(carol).isEmpty());
+    }
+
+    @Test
+    public void viewersSeeingTheSameMembersShareAPacket() {
+        Player dave = FakeServer.join("Dave");
+        Player erin = FakeServer.join("Erin");
+        NametagManager.setInterest(InterestMode.RADIUS, 10);
+        FakeServer.teleport(alice, "world", 0, 0, 0);
+        FakeServer.teleport(dave, "world", 20, 0, 0);
+        FakeServer.teleport(bob, "world", 10, 0, 0);
+        FakeServer.teleport(erin, "world", 10, 0, 0);
+        FakeServer.teleport(carol, "world", -5, 0, 0);
+
+        Map<String, Nametag> nametags = new LinkedHashMap<>();
+        nametags.put("Alice", new Nametag("[A]", ""));
+        nametags.put("Dave", new Nametag("[A]", ""));
+        NametagAPI.setNametagsHard(nametags);
+
+        PacketPlayOutScoreboardTeam bobs = getJoin(bob);
+        PacketPlayOutScoreboardTeam erins = getJoin(erin);
+        PacketPlayOutScoreboardTeam carols = getJoin(carol);
+
+        assertEquals(Arrays.asList("Alice", "Dave"), new ArrayList<>(bobs.getMembers()));
+        assertSame(bobs, erins);
+        assertEquals(Collections.singletonList("Alice"), new ArrayList<>(carols.getMembers()));
+        assertNotSame(bobs, carols);
+    }
+
+    /**
+     * Returns the players the given viewer was told joined a team since the
+     * packets were last taken.
+     */
+    private static List<String> getJoined(Player viewer) {
+        List<String> joined = new ArrayList<>();
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            if (packet.getMode() == 3) {
+                joined.addAll(packet.getMembers());
+            }
+        }
+
+        return joined;
+    }
+
+    /**
+     * Returns the only join packet sent to the given viewer since the packets
+     * were last taken.
+     */
+    private static PacketPlayOutScoreboardTeam getJoin(Player viewer) {
+        PacketPlayOutScoreboardTeam join = null;
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            if (packet.getMode() == 3) {
+                assertNull(join);
+                join = packet;
+            }
+        }
+
+        return join;
+    }
+
+}
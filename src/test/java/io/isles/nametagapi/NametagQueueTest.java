@@ -0,0 +1,145 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import io.isles.nametagapi.NametagChangeEvent.NametagChangeType;
+
+/**
+ * Tests that queued changes wait for the next tick and are combined per
+ * player, and that immediate changes complete their futures.
+ */
+public class NametagQueueTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private Player viewer;
+
+    @Before
+    public void setUp() {
+        NametagManager.load(FakeServer.getPlugin(), new ArrayList<NametagStore.Team>(), new ArrayList<Nametag>());
+        viewer = FakeServer.join("Viewer");
+    }
+
+    @Test
+    public void queuedChangesWaitForTheNextTick() {
+        NametagAPI.setNametagHard("Steve", "[A]", "");
+
+        assertEquals("", NametagAPI.getPrefix("Steve"));
+        assertTrue(FakeServer.takePackets(viewer).isEmpty());
+
+        FakeServer.tick();
+
+        assertEquals("[A]", NametagAPI.getPrefix("Steve"));
+        assertFalse(FakeServer.takePackets(viewer).isEmpty());
+    }
+
+    @Test
+    public void changesToOnePlayerOnlySendTheLastOne() {
+        NametagAPI.setNametagHard("Steve", "[A]", "");
+        NametagAPI.setNametagHard("steve", "[B]", "");
+        NametagAPI.setNametagHard("Steve", "[C]", "");
+        FakeServer.tick();
+
+        assertEquals("[C]", NametagAPI.getPrefix("Steve"));
+        assertEquals(1, NametagManager.getTeamCount());
+        assertEquals(Collections.singletonList("[C]"), getCreatedPrefixes());
+    }
+
+    @Test
+    public void softChangesInOneTickAreCombined() {
+        NametagAPI.setPrefix("Steve", "[A]");
+        NametagAPI.setSuffix("Steve", "[B]");
+        FakeServer.tick();
+
+        assertEquals("[A]", NametagAPI.getPrefix("Steve"));
+        assertEquals("[B]", NametagAPI.getSuffix("Steve"));
+        assertEquals(1, NametagManager.getTeamCount());
+    }
+
+    @Test
+    public void resetInTheSameTickCancelsTheChange() {
+        NametagAPI.setNametagHard("Steve", "[A]", "");
+        NametagAPI.resetNametag("Steve");
+        FakeServer.tick();
+
+        assertFalse(NametagAPI.hasCustomNametag("Steve"));
+        assertEquals(0, NametagManager.getTeamCount());
+        assertTrue(FakeServer.takePackets(viewer).isEmpty());
+    }
+
+    @Test
+    public void immediateChangesCompleteWithoutATick() throws Exception {
+        NametagAPI.setNametagHard("Steve", "[A]", "");
+        CompletableFuture<Boolean> result = NametagAPI.setNametagNow("Steve", "[B]", "", NametagChangeType.HARD);
+
+        assertTrue(result.isDone());
+        assertTrue(result.get());
+        assertEquals("[B]", NametagAPI.getPrefix("Steve"));
+        assertEquals(Collections.singletonList("[B]"), getCreatedPrefixes());
+    }
+
+    @Test
+    public void cancelledChangesCompleteWithFalse() throws Exception {
+        FakeServer.listen(NametagChangeEvent.getHandlerList(), new EventExecutor() {
+
+            @Override
+            public void execute(Listener listener, Event event) {
+                ((NametagChangeEvent) event).setCancelled(true);
+            }
+
+        });
+
+        CompletableFuture<Boolean> result = NametagAPI.setNametagNow("Steve", "[A]", "", NametagChangeType.HARD);
+
+        assertFalse(result.get());
+        assertFalse(NametagAPI.hasCustomNametag("Steve"));
+    }
+
+    @Test
+    public void changesQueuedAfterAResetAreFlushed() {
+        NametagAPI.setNametagHard("Steve", "[A]", "");
+        NametagManager.reset();
+        Bukkit.getScheduler().cancelTasks(FakeServer.getPlugin());
+
+        NametagAPI.setNametagHard("Steve", "[B]", "");
+        FakeServer.tick();
+
+        assertEquals("[B]", NametagAPI.getPrefix("Steve"));
+    }
+
+    /**
+     * Returns the prefixes of the teams created for the viewer since the
+     * packets were last taken.
+     */
+    private List<String> getCreatedPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            if (packet.getMode() == 0) {
+                prefixes.add(packet.getPrefix());
+            }
+        }
+
+        return prefixes;
+    }
+
+}
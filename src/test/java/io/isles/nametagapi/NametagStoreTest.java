@@ -0,0 +1,166 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that teams survive being saved and loaded again, that pins are only
+ * taken from the configuration when they are, and that restored nametags are
+ * not cleared on join unless configured to be.
+ */
+public class NametagStoreTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NametagStore store;
+
+    @Before
+    public void setUp() {
+        store = new NametagStore(new File(folder.getRoot(), "nametags.dat"));
+    }
+
+    @Test
+    public void missingFileReadsAsNoTeams() throws IOException {
+        assertTrue(store.read().isEmpty());
+    }
+
+    @Test
+    public void teamsAreReadAsWritten() throws IOException {
+        store.write(Arrays.asList(new NametagStore.Team(3, "[A]", "", false, new String[] { "Alice", "Bob" }),
+                        new NametagStore.Team(7, "", "\u00A7c*", true, new String[0])));
+
+        List<NametagStore.Team> teams = store.read();
+
+        assertEquals(2, teams.size());
+        assertEquals(3, teams.get(0).getId());
+        assertEquals("[A]", teams.get(0).getPrefix());
+        assertEquals("", teams.get(0).getSuffix());
+        assertFalse(teams.get(0).isPinned());
+        assertArrayEquals(new String[] { "Alice", "Bob" }, teams.get(0).getMembers());
+        assertEquals(7, teams.get(1).getId());
+        assertEquals("\u00A7c*", teams.get(1).getSuffix());
+        assertTrue(teams.get(1).isPinned());
+        assertEquals(0, teams.get(1).getMembers().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Files.write(store.getFile().toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        store.read();
+    }
+
+    @Test
+    public void teamsAreOnlySavedWhenChanged() throws IOException {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+
+        assertTrue(NametagManager.save(store));
+        assertFalse(NametagManager.save(store));
+
+        NametagAPI.setNametagHard("Bob", "[A]", "");
+
+        assertTrue(NametagManager.save(store));
+    }
+
+    @Test
+    public void restoredTeamsKeepTheirNamesAndMembers() throws IOException {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagAPI.setNametagHard("Bob", "[A]", "");
+        NametagAPI.setNametagHard("Carol", "[B]", "");
+        Map<String, String> before = getSnapshot(FakeServer.join("Before"));
+        NametagManager.save(store);
+        FakeServer.reset();
+
+        NametagManager.load(null, store.read(), Collections.<Nametag>emptyList());
+        FakeServer.setRecording(true);
+
+        assertEquals("[A]", NametagAPI.getPrefix("bob"));
+        assertEquals("[B]", NametagAPI.getPrefix("Carol"));
+        assertEquals(before, getSnapshot(FakeServer.join("After")));
+        assertFalse(NametagManager.save(store));
+    }
+
+    @Test
+    public void newTeamsDoNotReuseRestoredNumbers() throws IOException {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagManager.save(store);
+        FakeServer.reset();
+
+        NametagManager.load(null, store.read(), Collections.<Nametag>emptyList());
+        NametagAPI.setNametagHard("Dave", "[D]", "");
+        FakeServer.setRecording(true);
+
+        assertEquals(2, getSnapshot(FakeServer.join("Viewer")).size());
+    }
+
+    @Test
+    public void pinsAreOnlyTakenFromTheConfiguration() throws IOException {
+        NametagAPI.pinNametag("[P]", "");
+        NametagAPI.pinNametag("[Q]", "");
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagManager.save(store);
+        FakeServer.reset();
+
+        NametagManager.load(null, store.read(), Collections.singletonList(new Nametag("[Q]", "")));
+
+        assertEquals(2, NametagManager.getTeamCount());
+
+        NametagAPI.setNametagHard("Alice", "[Q]", "");
+
+        assertEquals(1, NametagManager.getTeamCount());
+    }
+
+    @Test
+    public void clearOnJoinDefaultsToOffWhenPersisting() {
+        MemoryConfiguration config = new MemoryConfiguration();
+
+        assertTrue(NametagPlugin.isClearOnJoin(config));
+
+        config.set("persistence.enabled", true);
+
+        assertFalse(NametagPlugin.isClearOnJoin(config));
+
+        config.set("clear-on-join", true);
+
+        assertTrue(NametagPlugin.isClearOnJoin(config));
+    }
+
+    /**
+     * Returns the prefix and members of every team the given player was sent
+     * when joining, by the team's name.
+     */
+    private static Map<String, String> getSnapshot(Player player) {
+        Map<String, String> teams = new HashMap<>();
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(player)) {
+            assertEquals(0, packet.getMode());
+            teams.put(packet.getName(), packet.getPrefix() + packet.getMembers());
+        }
+
+        return teams;
+    }
+
+}
@@ -0,0 +1,148 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import net.minecraft.server.v1_8_R3.EnumProtocol;
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests that packets written straight to players' channels are only flushed
+ * by {@link PacketDispatcher#flushWrites()}, once per channel, and that
+ * packets encoded up front match what the server's encoder would write.
+ */
+public class PacketWriteTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private Player alice;
+    private Player bob;
+
+    @Before
+    public void setUp() {
+        alice = FakeServer.join("Alice");
+        bob = FakeServer.join("Bob");
+
+        assertTrue(PacketHandler.isDirectSupported());
+        assertTrue(PacketDispatcher.setDirect(true));
+    }
+
+    @Test
+    public void writesWaitForTheFlush() {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagAPI.setNametagHard("Bob", "[B]", "");
+
+        for (Player player : Arrays.asList(alice, bob)) {
+            Channel channel = FakeServer.getChannel(player);
+
+            assertEquals(Arrays.asList("Alice", "Bob"), getJoined(channel.getWritten()));
+            assertTrue(channel.getFlushed().isEmpty());
+            assertTrue(FakeServer.takePackets(player).isEmpty());
+        }
+
+        PacketDispatcher.flushWrites();
+        PacketDispatcher.flushWrites();
+
+        for (Player player : Arrays.asList(alice, bob)) {
+            Channel channel = FakeServer.getChannel(player);
+
+            assertEquals(1, channel.getFlushes());
+            assertEquals(channel.getWritten(), channel.getFlushed());
+        }
+    }
+
+    @Test
+    public void writesAreFlushedWhenDirectModeIsTurnedOff() {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+
+        PacketDispatcher.setDirect(false);
+
+        Channel channel = FakeServer.getChannel(bob);
+        assertEquals(1, channel.getFlushes());
+        assertEquals(Arrays.asList("Alice"), getJoined(channel.getFlushed()));
+    }
+
+    @Test
+    public void encodedPacketsAreSharedBetweenChannels() throws ReflectiveOperationException {
+        assertTrue(PacketHandler.isEncodingSupported());
+        PacketHandler packet = new PacketHandler("NTP1", "[A]", "", Arrays.asList("Alice"), 0);
+
+        packet.writeToPlayer(alice, true);
+        packet.writeToPlayer(bob, true);
+
+        ByteBuf alices = (ByteBuf) FakeServer.getChannel(alice).getWritten().get(0);
+        ByteBuf bobs = (ByteBuf) FakeServer.getChannel(bob).getWritten().get(0);
+
+        assertArrayEquals(getBytes(EnumProtocol.TEAM_PACKET_ID, "NTP1", 0, "NTP1", "[A]", "", 1, "always", -1, 1, "Alice"), alices.array());
+        assertSame(alices.array(), bobs.array());
+    }
+
+    @Test
+    public void channelsWithAnotherEncoderAreWrittenThePacket() throws ReflectiveOperationException {
+        FakeServer.getChannel(bob).pipeline().replace("encoder", "encoder", new Object());
+        PacketHandler packet = new PacketHandler("NTP1", "[A]", "", Arrays.asList("Alice"), 0);
+
+        packet.writeToPlayer(alice, true);
+        packet.writeToPlayer(bob, true);
+
+        assertTrue(FakeServer.getChannel(alice).getWritten().get(0) instanceof ByteBuf);
+        PacketPlayOutScoreboardTeam written = (PacketPlayOutScoreboardTeam) FakeServer.getChannel(bob).getWritten().get(0);
+        assertEquals("[A]", written.getPrefix());
+        assertEquals(Arrays.asList("Alice"), new ArrayList<>(written.getMembers()));
+    }
+
+    /**
+     * Returns the given values as the protocol writes them: numbers as a
+     * single byte, and strings prefixed by their length, which fits in one
+     * byte for the short strings used here.
+     */
+    private static byte[] getBytes(Object... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (Object value : values) {
+            if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes.length);
+                out.write(bytes, 0, bytes.length);
+            } else {
+                out.write((Integer) value);
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the players the given messages add to a team, in order.
+     */
+    private static List<String> getJoined(List<Object> messages) {
+        List<String> joined = new ArrayList<>();
+
+        for (Object message : messages) {
+            PacketPlayOutScoreboardTeam packet = (PacketPlayOutScoreboardTeam) message;
+
+            if (packet.getMode() == 0 || packet.getMode() == 3) {
+                joined.addAll(packet.getMembers());
+            }
+        }
+
+        return joined;
+    }
+
+}
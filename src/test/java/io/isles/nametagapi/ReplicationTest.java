@@ -0,0 +1,136 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests the replication message format, and that changes received from
+ * another server are applied without firing events or being published
+ * again.
+ */
+public class ReplicationTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private final UUID peer = UUID.randomUUID();
+    private final List<byte[]> published = new ArrayList<>();
+    private InMemoryTransport transport;
+
+    @Before
+    public void setUp() {
+        InMemoryTransport.Hub hub = new InMemoryTransport.Hub();
+        transport = hub.connect();
+        transport.start(new ReplicationTransport.Receiver() {
+
+            @Override
+            public void receive(byte[] message) {
+                published.add(message);
+            }
+
+        });
+        NametagAPI.setReplicationTransport(hub.connect());
+    }
+
+    @After
+    public void tearDown() {
+        NametagAPI.setReplicationTransport(null);
+        transport.stop();
+    }
+
+    @Test
+    public void messagesDecodeToTheEncodedChanges() throws IOException {
+        Map<String, TeamInfo.Key> changes = new LinkedHashMap<>();
+        changes.put("Alice", new TeamInfo.Key("[A]", ""));
+        changes.put("Bob", null);
+        changes.put("Carol", new TeamInfo.Key("[A]", ""));
+        changes.put("Dave", new TeamInfo.Key("", "*"));
+
+        byte[] message = NametagReplicator.encode(peer, new ArrayList<>(changes.entrySet()));
+
+        assertEquals(changes, NametagReplicator.decode(message, UUID.randomUUID()));
+        assertNull(NametagReplicator.decode(message, peer));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownVersionsAreRejected() throws IOException {
+        byte[] message = NametagReplicator.encode(peer, new ArrayList<Map.Entry<String, TeamInfo.Key>>());
+        message[0] = 99;
+        NametagReplicator.decode(message, UUID.randomUUID());
+    }
+
+    @Test
+    public void localChangesArePublished() throws IOException {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        NametagAPI.resetNametag("Bob");
+
+        Map<String, TeamInfo.Key> received = new LinkedHashMap<>();
+
+        for (byte[] message : published) {
+            received.putAll(NametagReplicator.decode(message, peer));
+        }
+
+        Map<String, TeamInfo.Key> expected = new LinkedHashMap<>();
+        expected.put("Alice", new TeamInfo.Key("[A]", ""));
+        expected.put("Bob", null);
+        assertEquals(expected, received);
+    }
+
+    @Test
+    public void remoteChangesAreAppliedWithoutEventsOrRepublishing() {
+        final int[] events = new int[1];
+        EventExecutor cancel = new EventExecutor() {
+
+            @Override
+            public void execute(Listener listener, Event event) {
+                events[0]++;
+                ((Cancellable) event).setCancelled(true);
+            }
+
+        };
+        FakeServer.listen(NametagChangeEvent.getHandlerList(), cancel);
+        FakeServer.listen(NametagBatchChangeEvent.getHandlerList(), cancel);
+
+        Map<String, TeamInfo.Key> changes = new LinkedHashMap<>();
+        changes.put("Alice", new TeamInfo.Key("[A]", ""));
+        changes.put("Bob", new TeamInfo.Key("[A]", "*"));
+        transport.publish(NametagReplicator.encode(peer, new ArrayList<>(changes.entrySet())));
+
+        assertEquals("[A]", NametagAPI.getPrefix("Alice"));
+        assertEquals("*", NametagAPI.getSuffix("Bob"));
+        assertEquals(0, events[0]);
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void remoteClearsRemoveTheNametag() {
+        NametagAPI.setNametagHard("Alice", "[A]", "");
+        published.clear();
+
+        Map<String, TeamInfo.Key> changes = new LinkedHashMap<>();
+        changes.put("alice", null);
+        transport.publish(NametagReplicator.encode(peer, new ArrayList<>(changes.entrySet())));
+
+        assertEquals("", NametagAPI.getPrefix("Alice"));
+        assertEquals(0, NametagManager.getTeamCount());
+        assertTrue(published.isEmpty());
+    }
+
+}
@@ -0,0 +1,154 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests that a team whose members all change to the same new tag is updated
+ * in place, and that it is left alone whenever that would be wrong.
+ */
+public class TeamUpdateTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private Player viewer;
+    /** The team Alice and Bob are in to begin with. */
+    private String team;
+
+    @Before
+    public void setUp() {
+        viewer = FakeServer.join("Viewer");
+        setAll("[A]", "Alice", "Bob");
+        team = getTeamName("Alice");
+    }
+
+    @Test
+    public void teamIsUpdatedWhenAllMembersChangeTogether() {
+        setAll("[B]", "Alice", "Bob");
+
+        List<PacketPlayOutScoreboardTeam> packets = FakeServer.takePackets(viewer);
+        assertEquals(1, packets.size());
+        assertEquals(2, packets.get(0).getMode());
+        assertEquals(team, packets.get(0).getName());
+        assertEquals("[B]", packets.get(0).getPrefix());
+        assertEquals(1, NametagManager.getTeamCount());
+        assertEquals("[B]", NametagAPI.getPrefix("Bob"));
+    }
+
+    @Test
+    public void teamIsKeptWhenSomeMembersStay() {
+        setAll("[B]", "Alice");
+
+        assertEquals(Arrays.asList(0, 4, 3), getModes());
+        assertEquals(2, NametagManager.getTeamCount());
+        assertEquals("[A]", NametagAPI.getPrefix("Bob"));
+    }
+
+    @Test
+    public void membersMoveToTheTeamAlreadyShowingTheTag() {
+        setAll("[B]", "Carol");
+        String name = getTeamName("Carol");
+
+        setAll("[B]", "Alice", "Bob");
+
+        List<PacketPlayOutScoreboardTeam> packets = FakeServer.takePackets(viewer);
+        assertEquals(2, packets.size());
+        assertEquals(3, packets.get(0).getMode());
+        assertEquals(name, packets.get(0).getName());
+        assertEquals(Arrays.asList("Alice", "Bob"), new ArrayList<>(packets.get(0).getMembers()));
+        // The old team is removed with its members instead of them leaving it first.
+        assertEquals(1, packets.get(1).getMode());
+        assertEquals(team, packets.get(1).getName());
+        assertEquals(1, NametagManager.getTeamCount());
+    }
+
+    @Test
+    public void pinnedTeamsAreNotUpdated() {
+        NametagAPI.pinNametag("[A]", "");
+        FakeServer.takePackets(viewer);
+
+        setAll("[B]", "Alice", "Bob");
+
+        assertFalse(getModes().contains(2));
+        assertEquals(2, NametagManager.getTeamCount());
+    }
+
+    @Test
+    public void teamsStillShownToStaleViewersAreNotUpdated() {
+        FakeServer.join("Alice");
+        Player carol = FakeServer.join("Carol");
+        NametagManager.setInterest(InterestMode.WORLD, 0);
+        FakeServer.teleport(carol, "nether", 0, 0, 0);
+        setAll("[C]", "Alice");
+        FakeServer.takePackets(carol);
+
+        // Carol still sees Alice in the old team, which Bob is now alone in.
+        setAll("[B]", "Bob");
+
+        assertFalse(getModes().contains(2));
+        assertEquals("[B]", NametagAPI.getPrefix("Bob"));
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(carol)) {
+            assertFalse(packet.getMode() == 2);
+        }
+
+        FakeServer.teleport(carol, "world", 0, 0, 0);
+        NametagManager.refreshInterest(carol);
+
+        List<PacketPlayOutScoreboardTeam> packets = FakeServer.takePackets(carol);
+        assertEquals(1, packets.size());
+        assertEquals(3, packets.get(0).getMode());
+        assertEquals(Arrays.asList("Alice"), new ArrayList<>(packets.get(0).getMembers()));
+    }
+
+    private static void setAll(String prefix, String... players) {
+        Map<String, Nametag> nametags = new LinkedHashMap<>();
+
+        for (String player : players) {
+            nametags.put(player, new Nametag(prefix, ""));
+        }
+
+        NametagAPI.setNametagsHard(nametags);
+    }
+
+    /**
+     * Returns the name of the team the viewer was last told the given player
+     * joined, taking every packet sent since the packets were last taken.
+     */
+    private String getTeamName(String player) {
+        String name = null;
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            if ((packet.getMode() == 0 || packet.getMode() == 3) && packet.getMembers().contains(player)) {
+                name = packet.getName();
+            }
+        }
+
+        return name;
+    }
+
+    private List<Integer> getModes() {
+        List<Integer> modes = new ArrayList<>();
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            modes.add(packet.getMode());
+        }
+
+        return modes;
+    }
+
+}
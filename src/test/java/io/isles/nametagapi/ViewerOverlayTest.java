@@ -0,0 +1,128 @@
+package io.isles.nametagapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.minecraft.server.v1_8_R3.PacketPlayOutScoreboardTeam;
+
+import org.bukkit.entity.Player;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Tests that a nametag shown to a single viewer is only sent to them, keeps
+ * them from seeing global changes until it is reset, and is dropped when
+ * they leave.
+ */
+public class ViewerOverlayTest {
+
+    @Rule
+    public final FakeServerRule server = new FakeServerRule();
+
+    private Player alice;
+    private Player bob;
+
+    @Before
+    public void setUp() {
+        alice = FakeServer.join("Alice");
+        bob = FakeServer.join("Bob");
+        // Dave keeps the team, so changing Carol's tag moves her out of it.
+        NametagAPI.setNametagHard("Carol", "[G]", "");
+        NametagAPI.setNametagHard("Dave", "[G]", "");
+        FakeServer.takePackets(alice);
+        FakeServer.takePackets(bob);
+    }
+
+    @Test
+    public void overridesAreOnlySentToTheirViewer() {
+        NametagAPI.setNametagFor(alice, "Carol", "[A]", "");
+
+        List<PacketPlayOutScoreboardTeam> packets = FakeServer.takePackets(alice);
+        assertEquals(Collections.singletonList("Carol"), getMoved(packets, 4));
+        assertEquals(Collections.singletonList("Carol"), getMoved(packets, 3));
+        assertTrue(getMoved(FakeServer.takePackets(bob), 3).isEmpty());
+        assertEquals("[A]", NametagAPI.getPrefixFor(alice, "Carol"));
+        assertEquals("[G]", NametagAPI.getPrefixFor(bob, "Carol"));
+    }
+
+    @Test
+    public void globalChangesSkipViewersWithAnOverride() {
+        NametagAPI.setNametagFor(alice, "Carol", "[A]", "");
+        FakeServer.takePackets(alice);
+
+        NametagAPI.setNametagHard("Carol", "[H]", "");
+
+        List<PacketPlayOutScoreboardTeam> packets = FakeServer.takePackets(alice);
+        assertTrue(getMoved(packets, 3).isEmpty());
+        assertTrue(getMoved(packets, 4).isEmpty());
+        assertEquals(Collections.singletonList("Carol"), getMoved(FakeServer.takePackets(bob), 3));
+        assertEquals("[A]", NametagAPI.getPrefixFor(alice, "Carol"));
+        assertEquals("[H]", NametagAPI.getPrefixFor(bob, "Carol"));
+    }
+
+    @Test
+    public void resetShowsTheCurrentGlobalTag() {
+        NametagAPI.setNametagFor(alice, "Carol", "[A]", "");
+        NametagAPI.setNametagHard("Carol", "[H]", "");
+        String team = getTeamName(bob, "Carol");
+        FakeServer.takePackets(alice);
+
+        NametagAPI.resetNametagFor(alice, "Carol");
+
+        assertEquals(team, getTeamName(alice, "Carol"));
+        assertEquals("[H]", NametagAPI.getPrefixFor(alice, "Carol"));
+        // The team only Alice saw Carol in is no longer used.
+        assertEquals(2, NametagManager.getTeamCount());
+    }
+
+    @Test
+    public void overridesAreDroppedWhenTheViewerQuits() {
+        NametagAPI.setNametagFor(alice, "Carol", "[A]", "");
+
+        NametagManager.removeViewer(alice);
+
+        assertEquals("[G]", NametagAPI.getPrefixFor(alice, "Carol"));
+        assertEquals(1, NametagManager.getTeamCount());
+
+        NametagAPI.setNametagFor(alice, "Carol", "[A]", "");
+
+        assertEquals("[G]", NametagAPI.getPrefixFor(alice, "Carol"));
+    }
+
+    /**
+     * Returns the players the given packets of the given mode are for.
+     */
+    private static List<String> getMoved(List<PacketPlayOutScoreboardTeam> packets, int mode) {
+        List<String> moved = new ArrayList<>();
+
+        for (PacketPlayOutScoreboardTeam packet : packets) {
+            if (packet.getMode() == mode) {
+                moved.addAll(packet.getMembers());
+            }
+        }
+
+        return moved;
+    }
+
+    /**
+     * Returns the name of the team the given viewer was last told a player
+     * joined, taking every packet sent since the packets were last taken.
+     */
+    private static String getTeamName(Player viewer, String player) {
+        String name = null;
+
+        for (PacketPlayOutScoreboardTeam packet : FakeServer.takePackets(viewer)) {
+            if ((packet.getMode() == 0 || packet.getMode() == 3) && packet.getMembers().contains(player)) {
+                name = packet.getName();
+            }
+        }
+
+        return name;
+    }
+
+}